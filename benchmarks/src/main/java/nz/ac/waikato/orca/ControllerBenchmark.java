@@ -0,0 +1,71 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the work done by the controllers on every tick
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerBenchmark {
+
+	private ParameterInterface<?>[] parameters;
+	private double[] measurements = { 40, 60 };
+	private Setpoints setpoints = new Setpoints(new Double[] { 50d, 50d });
+	private ControllerPID pid;
+	private ControllerLQR lqr;
+	private double[][] b;
+
+	@Setup
+	public void setup() throws Exception {
+		parameters = Parameters.create();
+		pid = new ControllerPID(2, 1, 0, 10);
+		double[][] A = { { 1, 0 }, { 0, 1 } };
+		double[][] B = { { 0.1, -0.1, 0.05, 0.02, 0.02 }, { 0.2, -0.05, 0.01, 0.03, 0.03 } };
+		double[][] C = { { 1, 0 }, { 0, 1 } };
+		double[][] D = new double[2][5];
+		double[][] Q = { { 1, 0 }, { 0, 1 } };
+		double[][] R = new double[5][5];
+		for (int i = 0; i < R.length; i++) {
+			R[i][i] = 1;
+		}
+		double[] x = { 0, 0 };
+		double[] u = new double[parameters.length];
+		for (int i = 0; i < u.length; i++) {
+			u[i] = parameters[i].getDouble();
+		}
+		lqr = new ControllerLQR(A, B, C, D, Q, R, x, u, Parameters.getIDs(parameters));
+		b = B;
+	}
+
+	@Benchmark
+	public boolean pidEvaluate() {
+		return pid.evaluate(parameters, measurements, setpoints, 1);
+	}
+
+	@Benchmark
+	public boolean lqrEvaluate() {
+		return lqr.evaluate(parameters, measurements, setpoints, 1);
+	}
+
+	@Benchmark
+	public ControllerLQR lqrUpdateB() throws Exception {
+		lqr.UpdateB(b);
+		return lqr;
+	}
+}
@@ -0,0 +1,58 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the measurements and the model encoding used on every tick
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MeasureBenchmark {
+
+	private MeasureSystem measureSystem;
+	private ModelLQR model = new ModelLQR();
+	private double value = 42;
+
+	@Setup
+	public void setup() throws Exception {
+		measureSystem = new MeasureSystem(50d, 50d);
+		measureSystem.setModel(model);
+		measureSystem.measure();
+	}
+
+	@Benchmark
+	public double[] measure() {
+		measureSystem.measure();
+		return measureSystem.getMeasurements();
+	}
+
+	@Benchmark
+	public Setpoints getSetpoints() {
+		return measureSystem.getSetpoints(1, 1);
+	}
+
+	@Benchmark
+	public double encodeDecodeMeasurement() {
+		return model.decodeMeasurement(model.encodeMeasurement(value, ModelLQR.CPU), ModelLQR.CPU);
+	}
+
+	@Benchmark
+	public double encodeDecodeParameter() {
+		return ModelLQR.decodeParameter(ModelLQR.encodeParameter(value));
+	}
+}
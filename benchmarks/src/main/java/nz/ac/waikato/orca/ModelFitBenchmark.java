@@ -0,0 +1,57 @@
+package nz.ac.waikato.orca;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.waikato.orca.ml.SampleIndex;
+
+/**
+ * Benchmarks the Weka refit done by Controller.Evaluate for different numbers
+ * of measured values
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelFitBenchmark {
+
+	@Param({ "50", "500", "5000" })
+	public int measuredValues;
+
+	private SampleIndex samples;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		samples = new SampleIndex(Parameters.NAMES.length, 2);
+		int[] key = new int[Parameters.NAMES.length];
+		double[] values = new double[2];
+		while (samples.Size() < measuredValues) {
+			for (int i = 0; i < key.length; i++) {
+				key[i] = 1 + random.nextInt(Parameters.MAX[i]);
+			}
+			values[0] = 1 + random.nextDouble() * 99;
+			values[1] = 1 + random.nextDouble() * 99;
+			samples.Add(key, values);
+		}
+	}
+
+	@Benchmark
+	public double[][] refit() throws Exception {
+		return Controller.FitModel(samples, Parameters.NAMES);
+	}
+}
@@ -0,0 +1,67 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the application threads reading a parameter while the controller
+ * thread sets it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ParameterBenchmark {
+
+	private ParameterInteger parameter;
+	private double next = 0;
+
+	@Setup
+	public void setup() {
+		parameter = new ParameterInteger(Parameters.INITIAL[0], Parameters.MAX[0], 1, Parameters.NAMES[0]);
+	}
+
+	@Benchmark
+	@Group("primitive")
+	@GroupThreads(3)
+	public int getAsInt() {
+		return parameter.getAsInt();
+	}
+
+	@Benchmark
+	@Group("primitive")
+	@GroupThreads(1)
+	public boolean setPrimitive() {
+		next = (next + 1) % Parameters.MAX[0];
+		return parameter.set(next);
+	}
+
+	@Benchmark
+	@Group("boxed")
+	@GroupThreads(3)
+	public Integer get() {
+		return parameter.get();
+	}
+
+	@Benchmark
+	@Group("boxed")
+	@GroupThreads(1)
+	public boolean setBoxed() {
+		next = (next + 1) % Parameters.MAX[0];
+		return parameter.set(Double.valueOf(next));
+	}
+}
@@ -0,0 +1,31 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Builds the parameters used by the benchmarks, the same five parameters used
+ * by the training in Controller
+ */
+class Parameters {
+
+	static final String[] NAMES = { "Hash", "Sleep", "Buttons", "Depth", "Breadth" };
+	static final int[] INITIAL = { 1000, 100, 50, 3, 3 };
+	static final int[] MAX = { 10000, 10000, 100, 5, 7 };
+
+	private Parameters() {
+	}
+
+	static ParameterInterface<?>[] create() {
+		ParameterInterface<?>[] parameters = new ParameterInterface<?>[NAMES.length];
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = new ParameterInteger(INITIAL[i], MAX[i], 1, NAMES[i]);
+		}
+		return parameters;
+	}
+
+	static int[] getIDs(ParameterInterface<?>[] parameters) {
+		int[] ids = new int[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			ids[i] = parameters[i].getID();
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,145 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds a value that is rebuilt from new inputs on a background thread so the
+ * control thread does not wait for it. Only the latest input is built if
+ * several arrive while a build is running, and the current value is kept
+ * until the new one is ready or when the build fails.
+ *
+ * Used by the model controllers to solve the gain or build the model for a
+ * new B.
+ *
+ * @param <I> - The input a value is built from
+ * @param <V> - The value built
+ */
+abstract class BackgroundRebuild<I, V> {
+
+	private final String _threadName;
+	private volatile V _value;
+	private volatile ExecutorService _executor;
+	// Holds the latest input waiting to be built, older ones are dropped
+	private final AtomicReference<I> _pending = new AtomicReference<I>();
+	private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+	private volatile Exception _lastError;
+
+	/**
+	 * @param threadName - The name of the background thread
+	 */
+	BackgroundRebuild(String threadName) {
+		_threadName = threadName;
+	}
+
+	/**
+	 * Builds the value for an input, called on the background thread
+	 *
+	 * @param current - The value in use
+	 * @param input   - The latest input
+	 * @return - The value to use from now on
+	 * @throws Exception - If the value could not be built, the current value is
+	 *                   kept
+	 */
+	protected abstract V build(V current, I input) throws Exception;
+
+	V get() {
+		return _value;
+	}
+
+	/**
+	 * Replaces the value straight away, used when the value is built on the
+	 * calling thread
+	 */
+	void set(V value) {
+		_value = value;
+	}
+
+	/**
+	 * Hands the input to the background thread and returns straight away
+	 */
+	void submit(I input) {
+		_pending.set(input);
+		if (_scheduled.compareAndSet(false, true)) {
+			try {
+				getExecutor().execute(new Runnable() {
+
+					@Override
+					public void run() {
+						buildPending();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The thread was closed after it was got, the input is left pending and
+				// the current value kept until the next submit makes a new thread
+				_scheduled.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Builds every pending input until there is none left
+	 */
+	private void buildPending() {
+		while (true) {
+			I input = _pending.getAndSet(null);
+			if (input == null) {
+				_scheduled.set(false);
+				// An input may have arrived after the get but before the flag was cleared
+				if (_pending.get() == null || !_scheduled.compareAndSet(false, true))
+					return;
+				continue;
+			}
+			try {
+				_value = build(_value, input);
+			} catch (Exception e) {
+				_lastError = e;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return - True if an input has been given that has not been built yet
+	 */
+	boolean isPending() {
+		return _scheduled.get() || _pending.get() != null;
+	}
+
+	/**
+	 * @return - The last error from building or null if there has not been one
+	 */
+	Exception getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * Shuts down the background thread, a build that is running is finished
+	 * first. The thread is made again by the next submit
+	 */
+	synchronized void close() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, _threadName);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _executor;
+	}
+}
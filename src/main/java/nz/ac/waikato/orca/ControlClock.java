@@ -0,0 +1,22 @@
+package nz.ac.waikato.orca;
+
+/**
+ * The clock used by Controller to time its ticks. The system clock is used by
+ * default, VirtualControlClock lets a simulation run faster than real time.
+ */
+public interface ControlClock {
+
+	/**
+	 * @return - The current time in nanoseconds, only the difference between two
+	 *         times has any meaning
+	 */
+	long nanoTime();
+
+	/**
+	 * Waits for the given time to pass on this clock
+	 * 
+	 * @param nanos - The time to wait in nanoseconds
+	 * @throws InterruptedException - If the thread is interrupted while waiting
+	 */
+	void sleepNanos(long nanos) throws InterruptedException;
+}
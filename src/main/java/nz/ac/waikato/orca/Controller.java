@@ -1,8 +1,25 @@
 package nz.ac.waikato.orca;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import nz.ac.waikato.orca.ml.ExperimentDesign;
+import nz.ac.waikato.orca.ml.RecursiveLeastSquares;
+import nz.ac.waikato.orca.ml.SampleIndex;
 import nz.ac.waikato.orca.ml.Values;
 import weka.classifiers.functions.LinearRegression;
 import weka.core.Instances;
@@ -26,16 +43,52 @@ public class Controller {
 	private final Controller me = this;
 	// boolean that indecates weather the controller is running
 	// Also used to tell the controller to stop
-	private boolean _isRunning = false;
+	private volatile boolean _isRunning = false;
 	private boolean _printOutput = false;
+	// Used instead of printing when set
+	private volatile TelemetrySink _telemetrySink;
+	// Writes the output to standard output when printing without a sink
+	private TelemetrySink _printSink;
+	// Records each tick when set
+	private volatile RunRecorder _runRecorder;
 	private int _skipPrintOutput = 0;
 	private final int _seed;
+	// Used to time the ticks
+	private ControlClock _clock = SystemControlClock.INSTANCE;
 	// Used to calculate the total running time of controller
-	private long _systemStartTime;
-	// Holds the thread for the timer
-	private Thread _sleepTimer;
+	private long _systemStartNanos;
+	// Holds the deadline of the next tick and the time between ticks
+	private long _deadline;
+	private volatile long _intervalNanos;
+	// Holds when the last tick started so the controllers get the actual time
+	// between ticks
+	private long _lastTickStart;
+	private boolean _firstTick;
+
+	/**
+	 * Handles the parameters used when running on a ControllerHost
+	 */
+	private volatile ControllerHost _host;
+	// Used to start a hosted controller on the same host again
+	private ControllerHost _lastHost;
+	private ScheduledFuture<?> _hostedTick;
+	private ScheduledFuture<?> _hostedExpiry;
+	// Held by a hosted tick so stop can wait for the tick in flight
+	private final Object _tickLock = new Object();
+	private final Runnable _hostedTickTask = new Runnable() {
+
+		@Override
+		public void run() {
+			me.hostedTick();
+		}
+	};
 
-	private int numberOfControlUpdates = 1;
+	private volatile int numberOfControlUpdates = 1;
+	// The number of control updates asked for, the overrun policy may use less
+	private volatile int _targetControlUpdates = 1;
+	private final OverrunMonitor _overrunMonitor = new OverrunMonitor();
+	// The encoding shared by the controller and measure, fit by training
+	private final ModelLQR _model = new ModelLQR();
 
 	/**
 	 * 
@@ -74,9 +127,17 @@ public class Controller {
 			measureInterface = new MeasureNull();
 		this._ControllerInterface = controllerInterface;
 		this._MeasureInterface = measureInterface;
+		if (controllerInterface instanceof ModelAwareInterface)
+			((ModelAwareInterface) controllerInterface).setModel(_model);
+		if (measureInterface instanceof ModelAwareInterface)
+			((ModelAwareInterface) measureInterface).setModel(_model);
 		// If the controller is null then set the rest of the parameters to null as well
 		// else use the parameters given
 		this._parameters = parameters;
+		int numberOfParameters = (parameters != null) ? parameters.length : 0;
+		int numberOfMeasurements = measureInterface.getNumberOfMeasurements();
+		this.MeasuredValues = new SampleIndex(numberOfParameters, numberOfMeasurements);
+		this.SampleKey = new int[numberOfParameters];
 		// The other classes only look for -1 in the runtime so if it is less than 0
 		// just set to -1 otherwise use the time measurement to convert the time given
 		// into milliseconds
@@ -104,6 +165,186 @@ public class Controller {
 		this(controllerInterface, measureInterface, parameters, -1, null, seed);
 	}
 
+	/**
+	 * Warm starts from a snapshot, the model intercepts and the state of the
+	 * controller are set from the snapshot
+	 * 
+	 * @param snapshot - The snapshot taken by a controller with the same setup
+	 * @throws Exception - Throws an exception if any of the conditions for the
+	 *                   parameters are not met or the snapshot does not match
+	 */
+	public Controller(ControllerInterface controllerInterface, MeasureInterface measureInterface,
+			ParameterInterface<?>[] parameters, int seed, ControllerSnapshot snapshot) throws Exception {
+		this(controllerInterface, measureInterface, parameters, -1, null, seed);
+		if (snapshot != null)
+			restoreSnapshot(snapshot);
+	}
+
+	/**
+	 * Sends the output of each tick to the sink instead of standard output, null
+	 * goes back to standard output
+	 * 
+	 * @param telemetrySink - The sink to record each tick to or null
+	 */
+	public void setTelemetrySink(TelemetrySink telemetrySink) {
+		_telemetrySink = telemetrySink;
+	}
+
+	public TelemetrySink getTelemetrySink() {
+		return _telemetrySink;
+	}
+
+	/**
+	 * Records every tick to the recorder so the run can be played back later with
+	 * MeasureReplay, null stops recording
+	 * 
+	 * @param runRecorder - The recorder to record each tick to or null
+	 */
+	public void setRunRecorder(RunRecorder runRecorder) {
+		_runRecorder = runRecorder;
+	}
+
+	public RunRecorder getRunRecorder() {
+		return _runRecorder;
+	}
+
+	/**
+	 * Handles saving snapshots while running
+	 */
+	private volatile File _snapshotFile;
+	private long _snapshotIntervalMillis = -1;
+	private long _nextSnapshotMillis;
+	private ExecutorService _snapshotWriter;
+
+	/**
+	 * Writes a snapshot to the file every interval and when the controller stops
+	 * so it can be warm started later. The periodic snapshots are written on a
+	 * background thread, null stops writing snapshots
+	 * 
+	 * @param file       - The file to write to or null
+	 * @param interval   - The time between snapshots or -1 to only write one when
+	 *                   the controller stops
+	 * @param timeFormat - The unit the interval is given in, can be null if -1 is
+	 *                   used
+	 * @throws Exception - If the controller is running or the time format is
+	 *                   missing
+	 */
+	public synchronized void setSnapshotFile(File file, long interval, TimeUnit timeFormat) throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to change the snapshot file while the controller is running");
+		if (interval > 0 && timeFormat == null)
+			throw new Exception("Invalid time format");
+		_snapshotIntervalMillis = (interval > 0) ? timeFormat.toMillis(interval) : -1;
+		if (file != null && _snapshotIntervalMillis > 0 && _snapshotWriter == null) {
+			_snapshotWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Controller-snapshot");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		_snapshotFile = file;
+	}
+
+	public File getSnapshotFile() {
+		return _snapshotFile;
+	}
+
+	/**
+	 * Takes a snapshot of the model intercepts and the state of the controller,
+	 * should be called while the controller is not running or from the thread
+	 * running it
+	 * 
+	 * @return - The snapshot
+	 */
+	public ControllerSnapshot takeSnapshot() {
+		ControllerSnapshot snapshot = new ControllerSnapshot();
+		snapshot.put(ControllerSnapshot.INTERCEPT, _model.GetIntercepts());
+		if (_ControllerInterface instanceof ControllerSnapshotInterface)
+			((ControllerSnapshotInterface) _ControllerInterface).saveState(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Sets the model intercepts and the state of the controller from a snapshot
+	 * 
+	 * @param snapshot - The snapshot to restore
+	 * @throws Exception - If the controller is running or the snapshot does not
+	 *                   match the controller
+	 */
+	public void restoreSnapshot(ControllerSnapshot snapshot) throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to restore a snapshot while the controller is running");
+		double[] intercepts = snapshot.getRow(ControllerSnapshot.INTERCEPT);
+		if (intercepts != null)
+			_model.UpdateIntercepts(intercepts);
+		if (_ControllerInterface instanceof ControllerSnapshotInterface)
+			((ControllerSnapshotInterface) _ControllerInterface).loadState(snapshot);
+	}
+
+	/**
+	 * Takes a snapshot on the calling thread and writes it out in the background
+	 * or waits for it to be written. Once there is a background writer every
+	 * snapshot goes through it so one still queued never overwrites a later one
+	 */
+	private void writeSnapshot(boolean background) {
+		final File file = _snapshotFile;
+		if (file == null)
+			return;
+		final ControllerSnapshot snapshot = takeSnapshot();
+		Runnable write = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					snapshot.write(file);
+				} catch (IOException e) {
+					// Keep controlling, the next snapshot may work
+					System.out.println("ERROR:" + e);
+					e.printStackTrace();
+				}
+			}
+		};
+		ExecutorService snapshotWriter = _snapshotWriter;
+		if (snapshotWriter == null) {
+			write.run();
+			return;
+		}
+		Future<?> written = snapshotWriter.submit(write);
+		if (background)
+			return;
+		try {
+			written.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.out.println("ERROR:" + e.getCause());
+		}
+	}
+
+	/**
+	 * Sets the clock used to time the ticks, can only be changed while the
+	 * controller is not running. A ControllerHost schedules on real time so only
+	 * start and simulate wait on this clock
+	 * 
+	 * @param clock - The clock to use
+	 * @throws Exception - If the controller is running or the clock is null
+	 */
+	public void setClock(ControlClock clock) throws Exception {
+		if (clock == null)
+			throw new Exception("A clock must be provided");
+		if (_isRunning)
+			throw new Exception("Unable to change the clock while the controller is running");
+		_clock = clock;
+	}
+
+	public ControlClock getClock() {
+		return _clock;
+	}
+
 	public boolean isRunning() {
 		return _isRunning;
 	}
@@ -112,9 +353,154 @@ public class Controller {
 		return numberOfControlUpdates;
 	}
 
+	public int getTargetNumberOfControlUpdates() {
+		return _targetControlUpdates;
+	}
+
 	public void setNumberOfControlUpdates(int newControlUpdates) {
 		if (!_isRunning && newControlUpdates > 0) {
 			numberOfControlUpdates = newControlUpdates;
+			_targetControlUpdates = newControlUpdates;
+		}
+	}
+
+	/**
+	 * Sets what is done when a tick takes longer than its interval, DEGRADE is
+	 * used by default
+	 * 
+	 * @param policy - The policy to use
+	 * @throws Exception - If the policy is null
+	 */
+	public void setOverrunPolicy(OverrunMonitor.Policy policy) throws Exception {
+		_overrunMonitor.setPolicy(policy);
+	}
+
+	public OverrunMonitor.Policy getOverrunPolicy() {
+		return _overrunMonitor.getPolicy();
+	}
+
+	/**
+	 * @return - The counters and histogram of how long the ticks took compared to
+	 *         their interval
+	 */
+	public OverrunMonitor getOverrunMonitor() {
+		return _overrunMonitor;
+	}
+
+	/**
+	 * @return - The model shared by the controller and measure
+	 */
+	public ModelLQR getModel() {
+		return _model;
+	}
+
+	/**
+	 * Handles the MBean, the monitor is only recorded to while it is registered
+	 */
+	private static final String MBEANDOMAIN = "nz.ac.waikato.orca";
+	private static final AtomicInteger nextMBeanID = new AtomicInteger();
+	private volatile ControllerMonitor _monitor;
+	private ObjectName _mbeanName;
+
+	/**
+	 * Registers an MBean for the controller with the platform MBean server using
+	 * a generated name
+	 * 
+	 * @return - The name the MBean was registered under
+	 * @throws Exception - If an MBean is already registered for the controller
+	 */
+	public ObjectName registerMBean() throws Exception {
+		return registerMBean("controller-" + nextMBeanID.getAndIncrement());
+	}
+
+	/**
+	 * Registers an MBean for the controller with the platform MBean server so it
+	 * can be watched and its setpoints changed while it runs. The MBean keeps the
+	 * controller from being collected until it is unregistered
+	 * 
+	 * @param name - The name of the controller, must be unique in the JVM
+	 * @return - The name the MBean was registered under
+	 * @throws Exception - If an MBean is already registered for the controller or
+	 *                   the name is in use
+	 */
+	public synchronized ObjectName registerMBean(String name) throws Exception {
+		if (_mbeanName != null)
+			throw new Exception("An MBean is already registered for the controller");
+		if (name == null)
+			throw new Exception("A name must be provided");
+		ObjectName objectName = new ObjectName(MBEANDOMAIN + ":type=Controller,name=" + ObjectName.quote(name));
+		ControllerMonitor monitor = new ControllerMonitor(this, _parameters);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, objectName);
+		_mbeanName = objectName;
+		_monitor = monitor;
+		return objectName;
+	}
+
+	/**
+	 * Unregisters the MBean of the controller if there is one
+	 * 
+	 * @throws Exception - If the MBean server was unable to unregister it
+	 */
+	public synchronized void unregisterMBean() throws Exception {
+		if (_mbeanName == null)
+			return;
+		_monitor = null;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(_mbeanName))
+			server.unregisterMBean(_mbeanName);
+		_mbeanName = null;
+	}
+
+	/**
+	 * @return - The name of the MBean or null if one is not registered
+	 */
+	public synchronized ObjectName getMBeanName() {
+		return _mbeanName;
+	}
+
+	/**
+	 * @return - The monitor behind the MBean or null if one is not registered
+	 */
+	public ControllerMonitor getMonitor() {
+		return _monitor;
+	}
+
+	/**
+	 * A setpoint change waiting for the next tick
+	 */
+	private static final class SetpointChange {
+		private final int place;
+		private final Double setpoint;
+
+		private SetpointChange(int place, Double setpoint) {
+			this.place = place;
+			this.setpoint = setpoint;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<SetpointChange> _setpointChanges = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Changes a setpoint of the measure, can be called from any thread. The change
+	 * is made on the thread running the controller at the start of the next tick
+	 * 
+	 * @param place    - The measurement
+	 * @param setpoint - The desired value or null to clear it
+	 * @throws Exception - If the measure does not allow the setpoints to change
+	 *                   or the measurement does not exist
+	 */
+	public void setSetpoint(int place, Double setpoint) throws Exception {
+		if (!(_MeasureInterface instanceof MeasureSetpointInterface))
+			throw new Exception("The setpoints of the measure can not be changed");
+		if (place < 0 || place >= _MeasureInterface.getNumberOfMeasurements())
+			throw new Exception("There is no measurement " + place);
+		_setpointChanges.add(new SetpointChange(place, setpoint));
+	}
+
+	private void applySetpointChanges() {
+		SetpointChange change;
+		while ((change = _setpointChanges.poll()) != null) {
+			((MeasureSetpointInterface) _MeasureInterface).setSetpoint(change.place, change.setpoint);
 		}
 	}
 
@@ -133,6 +519,10 @@ public class Controller {
 	}
 
 	private void startRunningThread(boolean printOutput) throws Exception {
+		Thread lastThread = _runningThread;
+		if (lastThread != null && lastThread.isAlive())
+			throw new Exception("Unable to start thread while the last one is still stopping");
+		_lastHost = null;
 		_printOutput = printOutput;
 		_isRunning = true;
 		_runningThread = new Thread(new Runnable() {
@@ -168,205 +558,753 @@ public class Controller {
 
 	public void stop() {
 		_isRunning = false;
-		if (_sleepTimer == null)
+		if (_host == null)
 			return;
+		// Waits for a tick that has already started so the last snapshot is not
+		// taken while it changes the state, a tick calling stop already holds it
+		synchronized (_tickLock) {
+			ControllerHost host = _host;
+			if (host == null)
+				return;
+			ScheduledFuture<?> tick = _hostedTick;
+			if (tick != null)
+				tick.cancel(false);
+			ScheduledFuture<?> expiry = _hostedExpiry;
+			if (expiry != null)
+				expiry.cancel(false);
+			_host = null;
+			host.remove(this);
+			endRun();
+		}
+	}
+
+	/**
+	 * Starts the controller again the way it was last started, on the same host
+	 * if it was hosted otherwise on its own thread
+	 * 
+	 * @throws Exception - If the controller is running or still stopping
+	 */
+	void restart() throws Exception {
+		ControllerHost host = _lastHost;
+		if (host != null)
+			host.start(this, _printOutput);
 		else
-			_sleepTimer.interrupt();
+			start(_printOutput);
+	}
+
+	/**
+	 * Starts the controller on the executor of a host instead of its own thread,
+	 * used by ControllerHost
+	 */
+	void startHosted(ControllerHost host, boolean printOutput, int skipPrintOutput) throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to start a controller that is already running");
+		_printOutput = printOutput;
+		_skipPrintOutput = skipPrintOutput;
+		_isRunning = true;
+		_host = host;
+		_lastHost = host;
+		beginRun();
+		if (_runtimeInMillisec != -1) {
+			_hostedExpiry = host.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					me.stop();
+				}
+			}, _runtimeInMillisec, TimeUnit.MILLISECONDS);
+		}
+		_hostedTick = host.schedule(_hostedTickTask, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs one tick on the host executor and schedules the next one at its
+	 * deadline
+	 */
+	private void hostedTick() {
+		synchronized (_tickLock) {
+			if (!_isRunning)
+				return;
+			long pauseTime;
+			try {
+				pauseTime = runTick();
+			} catch (RuntimeException e) {
+				// Only stop this controller, the others on the host keep running
+				System.out.println("ERROR:" + e);
+				e.printStackTrace();
+				stop();
+				return;
+			}
+			ControllerHost host = _host;
+			if (_isRunning && host != null) {
+				_hostedTick = host.schedule(_hostedTickTask, Math.max(pauseTime, 0), TimeUnit.NANOSECONDS);
+			}
+		}
 	}
 
 	private static final int STABLETIME = 60;
 	private static final int VALUECOLLECT = STABLETIME;
-	private static final int EVALUEATEB = 10 * VALUECOLLECT;
-	private ArrayList<Values> MeasuredValues = new ArrayList<>();
-
-	private int[][] sampleData = { { 0, 0, 0, 0, 0 }, { 4676, 5, 59, 3, 1 }, { 410, 3321, 62, 5, 5 },
-			{ 3517, 1732, 70, 5, 4 }, { 1685, 2184, 2, 5, 3 }, { 1798, 1846, 93, 5, 1 }, { 20, 1759, 2, 2, 1 },
-			{ 2999, 9804, 14, 2, 2 }, { 2637, 7931, 11, 4, 2 }, { 5614, 2804, 12, 2, 7 }, { 506, 5802, 43, 2, 1 },
-			{ 4666, 1021, 94, 1, 3 }, { 251, 3314, 17, 2, 7 }, { 395, 1985, 82, 1, 3 }, { 7300, 4670, 79, 2, 2 },
-			{ 7036, 3795, 92, 1, 3 }, { 15, 30, 66, 1, 1 }, { 9423, 346, 19, 3, 5 }, { 501, 1676, 50, 3, 1 },
-			{ 800, 4563, 88, 4, 5 }, { 7814, 4286, 68, 3, 6 }, { 4179, 1885, 97, 1, 4 }, { 718, 8669, 52, 4, 3 },
-			{ 1198, 8118, 71, 1, 4 }, { 5386, 7899, 58, 5, 4 }, { 899, 100, 39, 1, 7 }, { 3168, 3825, 49, 2, 1 },
-			{ 7187, 6281, 69, 5, 4 }, { 9, 5, 67, 2, 3 }, { 8744, 2897, 11, 2, 5 }, { 1949, 8564, 93, 3, 6 },
-			{ 9724, 3258, 49, 3, 5 }, { 1672, 681, 58, 3, 4 }, { 8352, 160, 12, 1, 6 }, { 267, 90, 98, 5, 4 },
-			{ 13, 187, 93, 2, 3 }, { 4752, 5812, 9, 4, 1 }, { 3215, 9895, 39, 1, 3 }, { 7650, 8193, 74, 3, 6 },
-			{ 4268, 10, 70, 3, 5 }, { 7844, 6292, 43, 1, 2 }, { 7236, 5809, 14, 4, 6 }, { 3135, 6305, 54, 5, 2 },
-			{ 6876, 5174, 96, 5, 5 }, { 6220, 7416, 2, 5, 5 }, { 7891, 5484, 22, 4, 1 }, { 190, 3585, 80, 3, 3 },
-			{ 6569, 632, 46, 5, 5 }, { 9747, 5935, 89, 1, 3 }, { 20, 20, 45, 5, 6 } };
+	// The fit has converged once each row of B moves by less than this relative
+	// to its largest value
+	private static final double TRAININGTOLERANCE = 0.05;
+	private static final int CONVERGEDFITS = 2;
+	// Holds the average of each measurement for each set of parameter values
+	private final SampleIndex MeasuredValues;
+	private final int[] SampleKey;
 
+	// The parameter values to train on, a row for each sample
+	private double[][] TrainingPlan;
 	private int NextCollect = VALUECOLLECT;
-	private int NextEvaluate = EVALUEATEB;
 	private int NextSample = 0;
+	private double[][] LastFit;
+	private int ConvergedFits = 0;
 	private boolean training = false;
 
+	/**
+	 * Trains the model before controlling by moving the parameters through a
+	 * space filling design in log space between the min and max of each
+	 * parameter. Each sample is held for a minute, the model is refit after each
+	 * sample and training stops early once B stops changing
+	 * 
+	 * @param design     - The design used to pick the samples
+	 * @param budget     - The longest time to train for, sets the number of
+	 *                   samples
+	 * @param timeFormat - The unit the budget is given in
+	 * @throws Exception - If the controller does not use the model, it is
+	 *                   running, a parameter is not an integer with a min and
+	 *                   max or the budget is too short to fit the model
+	 */
+	public void setTraining(ExperimentDesign.Type design, long budget, TimeUnit timeFormat) throws Exception {
+		if (!(_ControllerInterface instanceof ControllerModelInterface))
+			throw new Exception("Training can only be used with a controller that uses the model");
+		if (_isRunning)
+			throw new Exception("Unable to start training while the controller is running");
+		if (design == null || timeFormat == null)
+			throw new Exception("The design and time format must be provided");
+		long samples = timeFormat.toSeconds(budget) / VALUECOLLECT;
+		if (samples < minimumTrainingSamples())
+			throw new Exception("The budget must allow for at least " + minimumTrainingSamples() + " samples");
+		double[] lower = new double[_parameters.length];
+		double[] upper = new double[_parameters.length];
+		for (int i = 0; i < _parameters.length; i++) {
+			// The samples are keyed on the integer values set
+			if (!(_parameters[i] instanceof ParameterInteger))
+				throw new Exception("Training can only move integer parameters, " + _parameters[i].getName()
+						+ " is not one");
+			if (!Parameter.isBounded(_parameters[i]))
+				throw new Exception("The min and max of " + _parameters[i].getName() + " must be set to train on it");
+			// The model uses the log of the parameters so the design can not reach 0
+			lower[i] = Math.max(1, _parameters[i].getMinValue());
+			upper[i] = _parameters[i].getMaxValue();
+			if (upper[i] <= lower[i])
+				throw new Exception("The max of " + _parameters[i].getName() + " must be greater than " + lower[i]);
+		}
+		TrainingPlan = ExperimentDesign.Create(design, lower, upper, (int) Math.min(samples, Integer.MAX_VALUE),
+				_seed);
+		MeasuredValues.Clear();
+		NextCollect = VALUECOLLECT;
+		NextSample = 0;
+		LastFit = null;
+		ConvergedFits = 0;
+		training = true;
+		setTrainingSample(0);
+	}
+
+	public boolean isTraining() {
+		return training;
+	}
+
+	/**
+	 * @return - The number of samples collected in the current or last training
+	 */
+	public int getTrainingSamples() {
+		return NextSample;
+	}
+
+	private int minimumTrainingSamples() {
+		// One for each coefficient and the intercept with one spare
+		return _parameters.length + 2;
+	}
+
+	private void setTrainingSample(int sample) {
+		for (int i = 0; i < _parameters.length; i++) {
+			_parameters[i].set(TrainingPlan[sample][i]);
+		}
+	}
+
 	private void ValuesCollect(long TimeInMilliseconds) {
 		long TimeInSeconds = TimeUnit.MILLISECONDS.toSeconds(TimeInMilliseconds);
 		if (TimeInSeconds >= NextCollect) {
 			NextCollect += VALUECOLLECT;
-			double CPU = _MeasureInterface.getMeasurements()[0];
-			double Memory = _MeasureInterface.getMeasurements()[1];
-			int Hash = (int) _parameters[0].get();
-			int Sleep = (int) _parameters[1].get();
-			int Buttons = (int) _parameters[2].get();
-			int Depth = (int) _parameters[3].get();
-			int Breadth = (int) _parameters[4].get();
-			Values MValue = new Values(CPU, Memory, Hash, Sleep, Buttons, Depth, Breadth);
-			boolean done = false;
-			try {
-				for (Values values : MeasuredValues) {
-					if (values.CompareTo(MValue)) {
-						double[] Tmp = { CPU, Memory };
-						values.AddToValues(Tmp);
-						done = true;
-						break;
-					}
-				}
-				if (done == false) {
-					MeasuredValues.add(MValue);
-				}
-			} catch (Exception e) {
-				System.out.print(e);
-				System.exit(-42);
+			double[] measurements = _MeasureInterface.getMeasurements();
+			for (int i = 0; i < SampleKey.length; i++) {
+				SampleKey[i] = _parameters[i].getAsInt();
+			}
+			MeasuredValues.Add(SampleKey, measurements);
+			NextSample++;
+			if (NextSample >= minimumTrainingSamples()) {
+				ControllerMonitor monitor = _monitor;
+				long refitStart = (monitor != null) ? _clock.nanoTime() : 0;
+				Evaluate();
+				if (monitor != null)
+					monitor.recordRefit(_clock.nanoTime() - refitStart);
 			}
 			if (training) {
-				_parameters[0].set((double) sampleData[NextSample][0]);
-				_parameters[1].set((double) sampleData[NextSample][1]);
-				_parameters[2].set((double) sampleData[NextSample][2]);
-				_parameters[3].set((double) sampleData[NextSample][3]);
-				_parameters[4].set((double) sampleData[NextSample][4]);
-				NextSample++;
-				if (NextSample == sampleData.length) {
+				if (NextSample < TrainingPlan.length)
+					setTrainingSample(NextSample);
+				else
 					training = false;
-				}
 			}
 		}
 	}
 
-	private void Evaluate(long TimeInMilliseconds) {
-		long TimeInSeconds = TimeUnit.MILLISECONDS.toSeconds(TimeInMilliseconds);
-		if (TimeInSeconds >= NextEvaluate) {
-			NextEvaluate += EVALUEATEB;
-			Instances CPUInstances = new Instances("CPU", Values.GetArrtibutesList(Values.CPUType),
-					Values.NumberOfAttributes);
-			Instances MemoryInstances = new Instances("Memory", Values.GetArrtibutesList(Values.MemoryType),
-					Values.NumberOfAttributes);
-			CPUInstances.setClassIndex(0);
-			MemoryInstances.setClassIndex(0);
-			try {
-				for (Values value : MeasuredValues) {
-					CPUInstances.add(value.GetInstance(Values.CPUType));
-					MemoryInstances.add(value.GetInstance(Values.MemoryType));
-				}
-				LinearRegression CPULR = new LinearRegression();
-				LinearRegression MemoryLR = new LinearRegression();
-				CPULR.buildClassifier(CPUInstances);
-				MemoryLR.buildClassifier(MemoryInstances);
-				double[][] newB = { { 0, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0 } };
-				double[] CPUValues = CPULR.coefficients();
-				double[] MemoryValues = MemoryLR.coefficients();
-				for (int i = 1; i < CPUValues.length - 1; i++) {
-					newB[0][i - 1] = CPUValues[i];
-					newB[1][i - 1] = MemoryValues[i];
+	/**
+	 * Fits the model to the samples collected and stops training once B and the
+	 * intercepts have converged
+	 */
+	private void Evaluate() {
+		try {
+			double[][] coefficients = FitModel(MeasuredValues, getParameterNames());
+			// Each row is B for the measurement followed by its intercept
+			double[][] fit = new double[coefficients.length][];
+			double[][] newB = new double[coefficients.length][];
+			double[] intercepts = new double[coefficients.length];
+			for (int m = 0; m < coefficients.length; m++) {
+				// The class is at 0 and the intercept is last
+				fit[m] = Arrays.copyOfRange(coefficients[m], 1, _parameters.length + 2);
+				newB[m] = Arrays.copyOf(fit[m], _parameters.length);
+				intercepts[m] = fit[m][_parameters.length];
+			}
+			_model.UpdateIntercepts(intercepts);
+			((ControllerModelInterface) _ControllerInterface).UpdateB(newB);
+			if (LastFit != null && hasConverged(LastFit, fit)) {
+				ConvergedFits++;
+				if (ConvergedFits >= CONVERGEDFITS)
+					training = false;
+			} else {
+				ConvergedFits = 0;
+			}
+			LastFit = fit;
+		} catch (Exception e) {
+			System.out.printf("Error:%s\n", e.toString());
+			System.out.println(e);
+			e.printStackTrace();
+			System.exit(-42);
+		}
+	}
+
+	/**
+	 * @return - True if the largest change in each row of the fit is within the
+	 *         tolerance of the largest value in that row
+	 */
+	private static boolean hasConverged(double[][] lastFit, double[][] newFit) {
+		for (int m = 0; m < newFit.length; m++) {
+			double largestChange = 0;
+			double largestValue = 0;
+			for (int i = 0; i < newFit[m].length; i++) {
+				largestChange = Math.max(largestChange, Math.abs(newFit[m][i] - lastFit[m][i]));
+				largestValue = Math.max(largestValue, Math.abs(newFit[m][i]));
+			}
+			if (largestChange > TRAININGTOLERANCE * largestValue)
+				return false;
+		}
+		return true;
+	}
+
+	private String[] getParameterNames() {
+		String[] names = new String[_parameters.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = _parameters[i].getName();
+		}
+		return names;
+	}
+
+	/**
+	 * Fits a linear regression of the log of each measurement to all of the
+	 * samples collected, the intercept fitted is the intercept of the model
+	 * 
+	 * @param samples        - The samples collected, keyed by the parameter values
+	 * @param parameterNames - The name of each parameter in the order of the key
+	 * @return - The coefficients for each measurement in the order of the Weka
+	 *         attributes, the class is at 0 and the intercept is last
+	 * @throws Exception - If Weka is unable to fit the samples
+	 */
+	static double[][] FitModel(SampleIndex samples, String[] parameterNames) throws Exception {
+		int numberOfParameters = samples.GetKeyWidth();
+		int[] key = new int[numberOfParameters];
+		double[][] coefficients = new double[samples.GetValueWidth()][];
+		for (int m = 0; m < coefficients.length; m++) {
+			Instances instances = new Instances("Measurement " + m,
+					Values.GetArrtibutesList("Measurement " + m, parameterNames), samples.Size());
+			instances.setClassIndex(0);
+			for (int i = 0; i < samples.Size(); i++) {
+				for (int j = 0; j < numberOfParameters; j++) {
+					key[j] = samples.GetKey(i, j);
 				}
-				ModelLQR.UpdateIntercept(CPUValues[6], ModelLQR.CPU);
-				ModelLQR.UpdateIntercept(MemoryValues[6], ModelLQR.MEMORY);
-				((ControllerLQR) _ControllerInterface).UpdateB(newB);
-			} catch (Exception e) {
-				System.out.printf("Error:%s\n", e.toString());
-				System.out.println(e);
-				e.printStackTrace();
-				System.exit(-42);
+				instances.add(Values.GetInstance(samples.GetMean(i, m), key));
+			}
+			LinearRegression regression = new LinearRegression();
+			regression.buildClassifier(instances);
+			coefficients[m] = regression.coefficients();
+		}
+		return coefficients;
+	}
+
+	/**
+	 * Handles the online identification of the model, when enabled each
+	 * measurement updates the fit instead of waiting for Evaluate
+	 */
+	private RecursiveLeastSquares[] Identifiers;
+	private double[] IdentifierInputs;
+
+	/**
+	 * Updates the B matrix of the model controller and the model intercepts from
+	 * every measurement using recursive least squares. The model is updated in the
+	 * background so the loop is not stalled by the constant model changes
+	 * 
+	 * @param forgettingFactor - Between 0 and 1, how much weight is kept for the
+	 *                         older measurements. 1 never forgets
+	 * @throws Exception - If the controller does not use the model, it is running or
+	 *                   the forgetting factor is invalid
+	 */
+	public void setOnlineIdentification(double forgettingFactor) throws Exception {
+		if (!(_ControllerInterface instanceof ControllerModelInterface))
+			throw new Exception("Online identification can only be used with a controller that uses the model");
+		if (_isRunning)
+			throw new Exception("Unable to change the identification while the controller is running");
+		RecursiveLeastSquares[] identifiers = new RecursiveLeastSquares[_MeasureInterface.getNumberOfMeasurements()];
+		for (int i = 0; i < identifiers.length; i++) {
+			identifiers[i] = new RecursiveLeastSquares(_parameters.length, forgettingFactor);
+		}
+		Identifiers = identifiers;
+		IdentifierInputs = new double[_parameters.length];
+		((ControllerModelInterface) _ControllerInterface).setBackgroundSolve(true);
+	}
+
+	/**
+	 * Adds the current measurement to the online fit and publishes the new model
+	 */
+	private void Identify() {
+		double[] measurements = _MeasureInterface.getMeasurements();
+		// The log can not be taken of values that are not positive so the sample is
+		// skipped
+		for (int m = 0; m < Identifiers.length; m++) {
+			if (measurements[m] <= 0)
+				return;
+		}
+		for (int i = 0; i < _parameters.length; i++) {
+			double value = _parameters[i].getDouble();
+			if (value <= 0)
+				return;
+			IdentifierInputs[i] = ModelLQR.encodeParameter(value);
+		}
+		// The background solver may still be reading the last B so a new one is made
+		double[][] newB = new double[Identifiers.length][_parameters.length];
+		double[] intercepts = new double[Identifiers.length];
+		for (int m = 0; m < Identifiers.length; m++) {
+			// Fit against the log of the measurement so the fitted intercept is the
+			// model intercept
+			Identifiers[m].Update(IdentifierInputs, Math.log(measurements[m]));
+			for (int i = 0; i < _parameters.length; i++) {
+				newB[m][i] = Identifiers[m].GetCoefficient(i);
 			}
+			intercepts[m] = Identifiers[m].GetIntercept();
+		}
+		_model.UpdateIntercepts(intercepts);
+		try {
+			((ControllerModelInterface) _ControllerInterface).UpdateB(newB);
+		} catch (Exception e) {
+			System.out.printf("Error:%s\n", e.toString());
+			e.printStackTrace();
 		}
 	}
 
-	private static final int GCATEACHSECOND = 0;
+	/**
+	 * Handles forcing a garbage collection, -1 never forces one which is the
+	 * default
+	 */
+	private int _forcedGCInterval = -1;
 	private int GCCount = 0;
 
 	/**
-	 * Handles all of the code that is used while the controller is running
+	 * Holds how late each tick started compared to its deadline
+	 */
+	private volatile long _lastTickJitterNanos = 0;
+	private volatile long _maxTickJitterNanos = 0;
+	private volatile long _totalTickJitterNanos = 0;
+	private volatile long _totalTicks = 0;
+
+	/**
+	 * Forces a garbage collection every given number of ticks. This adds a full
+	 * collection pause to both the controller and the application so it is off
+	 * unless asked for
+	 * 
+	 * @param ticks - The number of ticks between each collection, 1 is every tick
+	 *              and -1 never forces a collection
+	 */
+	public void setForcedGCInterval(int ticks) {
+		if (ticks <= 0)
+			ticks = -1;
+		_forcedGCInterval = ticks;
+		GCCount = 0;
+	}
+
+	public int getForcedGCInterval() {
+		return _forcedGCInterval;
+	}
+
+	/**
+	 * @return - How late the last tick started after its deadline in nanoseconds
+	 */
+	public long getLastTickJitterNanos() {
+		return _lastTickJitterNanos;
+	}
+
+	/**
+	 * @return - The latest any tick has started after its deadline in nanoseconds
+	 */
+	public long getMaxTickJitterNanos() {
+		return _maxTickJitterNanos;
+	}
+
+	/**
+	 * @return - The average of how late the ticks started after their deadline in
+	 *         nanoseconds
+	 */
+	public long getAverageTickJitterNanos() {
+		long totalTicks = _totalTicks;
+		if (totalTicks == 0)
+			return 0;
+		return _totalTickJitterNanos / totalTicks;
+	}
+
+	public long getTotalTicks() {
+		return _totalTicks;
+	}
+
+	/**
+	 * Handles the adaptive interval, when enabled the time between ticks is
+	 * shortened while the measurements are away from the setpoints or moving and
+	 * lengthened while they are steady
+	 */
+	private boolean _adaptiveInterval = false;
+	private long _minIntervalNanos;
+	private long _maxIntervalNanos;
+	private double _errorThreshold;
+	private double _errorRateThreshold;
+	private double[] _lastErrors;
+	// Lengthens slowly so a single quiet tick does not back off too far
+	private static final double INTERVALSHRINK = 0.5;
+	private static final double INTERVALGROWTH = 1.25;
+
+	/**
+	 * Changes the time between ticks to follow the tracking error within the
+	 * bounds given. The interval is halved when the relative error or the rate it
+	 * changes is over its threshold and is lengthened once both are under half of
+	 * it. The measure interval is used to start with
+	 * 
+	 * @param minInterval        - The shortest time between ticks
+	 * @param maxInterval        - The longest time between ticks
+	 * @param timeFormat         - The unit the intervals are given in
+	 * @param errorThreshold     - The error relative to the setpoint that
+	 *                           shortens the interval, 0.1 is 10%
+	 * @param errorRateThreshold - The change in the relative error per second that
+	 *                           shortens the interval
+	 * @throws Exception - If the controller is running or any of the values are
+	 *                   invalid
+	 */
+	public void setAdaptiveInterval(long minInterval, long maxInterval, TimeUnit timeFormat, double errorThreshold,
+			double errorRateThreshold) throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to change the interval while the controller is running");
+		if (timeFormat == null)
+			throw new Exception("Invalid time format");
+		if (minInterval <= 0 || maxInterval < minInterval)
+			throw new Exception("The intervals must be greater than 0 and the max can not be less than the min");
+		if (errorThreshold <= 0 || errorRateThreshold <= 0)
+			throw new Exception("The thresholds must be greater than 0");
+		_minIntervalNanos = timeFormat.toNanos(minInterval);
+		_maxIntervalNanos = timeFormat.toNanos(maxInterval);
+		_errorThreshold = errorThreshold;
+		_errorRateThreshold = errorRateThreshold;
+		_lastErrors = new double[_MeasureInterface.getNumberOfMeasurements()];
+		_adaptiveInterval = true;
+	}
+
+	/**
+	 * Goes back to ticking at the measure interval
+	 * 
+	 * @throws Exception - If the controller is running
+	 */
+	public void removeAdaptiveInterval() throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to change the interval while the controller is running");
+		_adaptiveInterval = false;
+	}
+
+	public boolean isAdaptiveInterval() {
+		return _adaptiveInterval;
+	}
+
+	/**
+	 * @return - The time between ticks currently used in nanoseconds
+	 */
+	public long getIntervalNanos() {
+		return _intervalNanos;
+	}
+
+	/**
+	 * Moves the interval for the next tick based on how far each measurement is
+	 * from its setpoint and how fast that is changing
+	 */
+	private void adaptInterval(double[] measurements, Setpoints setpoints, double dtSec) {
+		boolean shorten = false;
+		boolean steady = true;
+		int size = Math.min(_lastErrors.length, measurements.length);
+		for (int i = 0; i < size; i++) {
+			if (setpoints == null || i >= setpoints.size() || !setpoints.has(i))
+				continue;
+			double setpoint = setpoints.get(i);
+			double error = (setpoint != 0) ? Math.abs((measurements[i] - setpoint) / setpoint)
+					: Math.abs(measurements[i]);
+			double errorRate = (_firstTick || dtSec <= 0) ? 0 : Math.abs(error - _lastErrors[i]) / dtSec;
+			_lastErrors[i] = error;
+			if (error > _errorThreshold || errorRate > _errorRateThreshold)
+				shorten = true;
+			if (error > _errorThreshold / 2 || errorRate > _errorRateThreshold / 2)
+				steady = false;
+		}
+		if (shorten)
+			_intervalNanos = Math.max(_minIntervalNanos, (long) (_intervalNanos * INTERVALSHRINK));
+		else if (steady)
+			_intervalNanos = Math.min(_maxIntervalNanos, (long) (_intervalNanos * INTERVALGROWTH));
+	}
+
+	/**
+	 * Handles all of the code that is used while the controller is running. Each
+	 * tick has an absolute deadline one interval after the last one so the time
+	 * spent working does not add drift to the period
 	 */
 	private void run() {
-		startTimer();
-		_systemStartTime = System.currentTimeMillis();
-		long startTime;
-		long stopTime;
+		beginRun();
+		boolean expired = false;
 		while (_isRunning) {
-			startTime = System.currentTimeMillis();
-			_MeasureInterface.measure();
-			long currentRuntime = System.currentTimeMillis() - _systemStartTime;
-			double[] measurements = _MeasureInterface.getMeasurements();
-			Double[] setpoints;
-			if (_ControllerInterface instanceof ControllerLQR) {
-				setpoints = _MeasureInterface.getSetpoints(numberOfControlUpdates,
-						TimeUnit.MILLISECONDS.toSeconds(currentRuntime));
-			} else {
-				setpoints = _MeasureInterface.getRawSetpoints();
+			if (hasExpired(_clock.nanoTime())) {
+				_isRunning = false;
+				expired = true;
+				break;
 			}
-			if (training != true) {
-				for (int i = 0; i < numberOfControlUpdates; i++) {
-					_ControllerInterface.evaluate(_parameters, measurements, setpoints,
-							_MeasureInterface.getMeasureIntervalInSec());
-				}
-			}
-			if (_ControllerInterface instanceof ControllerLQR && training == true) {
-				ValuesCollect(currentRuntime);
-				Evaluate(currentRuntime);
-			}
-			if (_printOutput) {
-				if (_skipPrintOutput <= 0) {
-					_MeasureInterface.print(currentRuntime, _parameters);
-				} else {
-					_skipPrintOutput--;
-				}
-			}
-			if (GCCount == GCATEACHSECOND) {
-				System.gc();
-				GCCount = 0;
-			} else {
-				GCCount++;
-			}
-			stopTime = System.currentTimeMillis();
-			long runtime = (stopTime - startTime);
-			long pauseTime = _MeasureInterface.getMeasureIntervalInMillis() - runtime;
+			long pauseTime = runTick();
 			if (pauseTime > 0) {
 				try {
-					TimeUnit.MILLISECONDS.sleep(pauseTime);
+					_clock.sleepNanos(pauseTime);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 					System.out.println("ERROR:" + e);
 				}
-			} else if (pauseTime < 0) {
-				if (numberOfControlUpdates > 1) {
-					numberOfControlUpdates--;
-				}
 			}
 		}
-		System.exit(0);
+		endRun();
+		// Only the end of the runtime ends the program, a controller stopped by
+		// stop can be started again
+		if (expired)
+			System.exit(0);
+	}
+
+	/**
+	 * Runs the controller on the calling thread for the given time then returns,
+	 * the JVM is not exited. With a VirtualControlClock the waits between ticks
+	 * take no time so hours of control can be run in seconds
+	 * 
+	 * @param runtime    - The amount of time on the clock to run for
+	 * @param timeFormat - The unit the runtime is given in
+	 * @throws Exception - If the controller is already running
+	 */
+	public void simulate(long runtime, TimeUnit timeFormat) throws Exception {
+		if (_isRunning)
+			throw new Exception("Unable to simulate while the controller is running");
+		_isRunning = true;
+		beginRun();
+		long endNanos = _systemStartNanos + timeFormat.toNanos(runtime);
+		try {
+			while (_isRunning && _clock.nanoTime() < endNanos) {
+				long pauseTime = runTick();
+				if (pauseTime > 0)
+					_clock.sleepNanos(pauseTime);
+			}
+		} finally {
+			_isRunning = false;
+			endRun();
+		}
+	}
+
+	private void beginRun() {
+		_systemStartNanos = _clock.nanoTime();
+		_intervalNanos = TimeUnit.MILLISECONDS.toNanos(_MeasureInterface.getMeasureIntervalInMillis());
+		if (_adaptiveInterval)
+			_intervalNanos = Math.min(Math.max(_intervalNanos, _minIntervalNanos), _maxIntervalNanos);
+		_deadline = _systemStartNanos;
+		_firstTick = true;
+		numberOfControlUpdates = _targetControlUpdates;
+		_nextSnapshotMillis = _snapshotIntervalMillis;
+		// The samples are timed from the start of the run
+		if (training)
+			NextCollect = VALUECOLLECT;
+	}
+
+	/**
+	 * Writes the last snapshot and stops the background solver so a stopped
+	 * controller does not keep a thread
+	 */
+	private void endRun() {
+		TelemetrySink printSink = _printSink;
+		_printSink = null;
+		if (printSink != null) {
+			try {
+				printSink.close();
+			} catch (IOException e) {
+				System.out.println("ERROR:" + e);
+			}
+		}
+		writeSnapshot(false);
+		if (_ControllerInterface instanceof ControllerModelInterface)
+			((ControllerModelInterface) _ControllerInterface).close();
 	}
 
 	/**
-	 * Starts a timer to end the controller once a set time is done if runtime is -1
-	 * no timer is set
+	 * @return - The sink that writes to standard output, made on the first tick
+	 *         printed so the printing is done off the control thread
 	 */
-	private void startTimer() {
-		// No timer is needed if -1 is set
+	private TelemetrySink printSink() {
+		if (_printSink == null) {
+			try {
+				_printSink = TelemetrySink.standardOutput();
+			} catch (Exception e) {
+				System.out.println("ERROR:" + e);
+				_printOutput = false;
+			}
+		}
+		return _printSink;
+	}
+
+	/**
+	 * @return - True if the controller has a runtime and it has been reached
+	 */
+	private boolean hasExpired(long timeNanos) {
 		if (_runtimeInMillisec == -1)
-			return;
-		// Create new timer thread
-		_sleepTimer = new Thread(new Runnable() {
+			return false;
+		return timeNanos - _systemStartNanos >= TimeUnit.MILLISECONDS.toNanos(_runtimeInMillisec);
+	}
 
-			@Override
-			public void run() {
-				try {
-					// Sleep time in milliseconds
-					TimeUnit.MILLISECONDS.sleep(me._runtimeInMillisec);
-					// set is running to false when time is up
-					me._isRunning = false;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+	/**
+	 * Runs one tick and moves the deadline on to the next one, the overrun policy
+	 * decides the deadline and number of control updates when the tick overran
+	 * 
+	 * @return - The time left until the next deadline in nanoseconds, less than 1
+	 *         if the tick overran
+	 */
+	private long runTick() {
+		long startTime = _clock.nanoTime();
+		recordJitter(startTime - _deadline);
+		long elapsedNanos = _firstTick ? _intervalNanos : startTime - _lastTickStart;
+		_lastTickStart = startTime;
+		tick(TimeUnit.NANOSECONDS.toMillis(startTime - _systemStartNanos), elapsedNanos / 1e9);
+		_firstTick = false;
+		long stopTime = _clock.nanoTime();
+		ControllerMonitor monitor = _monitor;
+		if (monitor != null)
+			monitor.recordTickDuration(stopTime - startTime);
+		_deadline = _overrunMonitor.record(startTime, stopTime, _deadline + _intervalNanos, _intervalNanos,
+				training ? 0 : numberOfControlUpdates);
+		numberOfControlUpdates = _overrunMonitor.controlUpdates(numberOfControlUpdates, _targetControlUpdates,
+				_intervalNanos);
+		return _deadline - stopTime;
+	}
+
+	private void recordJitter(long jitterNanos) {
+		if (jitterNanos < 0)
+			jitterNanos = 0;
+		_lastTickJitterNanos = jitterNanos;
+		if (jitterNanos > _maxTickJitterNanos)
+			_maxTickJitterNanos = jitterNanos;
+		_totalTickJitterNanos += jitterNanos;
+		_totalTicks++;
+	}
+
+	/**
+	 * Measures, evaluates the controller and prints the output once
+	 * 
+	 * @param currentRuntime - The time since the controller was started in
+	 *                       milliseconds
+	 * @param dtSec          - The time since the last tick in seconds
+	 */
+	private void tick(long currentRuntime, double dtSec) {
+		if (!_setpointChanges.isEmpty())
+			applySetpointChanges();
+		ControllerMonitor monitor = _monitor;
+		_MeasureInterface.measure();
+		double[] measurements = _MeasureInterface.getMeasurements();
+		Setpoints setpoints;
+		if (_ControllerInterface instanceof ControllerModelInterface) {
+			setpoints = _MeasureInterface.getSetpoints(numberOfControlUpdates,
+					TimeUnit.MILLISECONDS.toSeconds(currentRuntime));
+		} else {
+			setpoints = _MeasureInterface.getRawSetpoints();
+		}
+		if (training != true) {
+			long evaluateStart = (monitor != null) ? _clock.nanoTime() : 0;
+			int controlUpdates = numberOfControlUpdates;
+			for (int i = 0; i < controlUpdates; i++) {
+				_ControllerInterface.evaluate(_parameters, measurements, setpoints, dtSec);
 			}
-		});
-		_sleepTimer.start();
+			if (monitor != null)
+				monitor.recordEvaluateDuration(_clock.nanoTime() - evaluateStart);
+		}
+		if (_adaptiveInterval) {
+			adaptInterval(measurements, _MeasureInterface.getRawSetpoints(), dtSec);
+		}
+		if (Identifiers != null) {
+			long refitStart = (monitor != null) ? _clock.nanoTime() : 0;
+			Identify();
+			if (monitor != null)
+				monitor.recordRefit(_clock.nanoTime() - refitStart);
+		}
+		if (_ControllerInterface instanceof ControllerModelInterface && training == true) {
+			ValuesCollect(currentRuntime);
+		}
+		if (monitor != null)
+			monitor.recordTick(measurements, _MeasureInterface.getRawSetpoints());
+		RunRecorder runRecorder = _runRecorder;
+		if (runRecorder != null) {
+			try {
+				runRecorder.record(currentRuntime, measurements, _MeasureInterface.getRawSetpoints(), _parameters);
+			} catch (IOException e) {
+				// Stop recording but keep controlling
+				System.out.println("ERROR:" + e);
+				e.printStackTrace();
+				_runRecorder = null;
+			}
+		}
+		TelemetrySink telemetrySink = _telemetrySink;
+		if (telemetrySink == null && _printOutput)
+			telemetrySink = printSink();
+		if (telemetrySink != null) {
+			if (_skipPrintOutput <= 0) {
+				telemetrySink.record(currentRuntime, measurements, _MeasureInterface.getRawSetpoints(), _parameters);
+			} else {
+				_skipPrintOutput--;
+			}
+		}
+		if (_snapshotIntervalMillis > 0 && currentRuntime >= _nextSnapshotMillis) {
+			_nextSnapshotMillis = currentRuntime + _snapshotIntervalMillis;
+			writeSnapshot(true);
+		}
+		if (_forcedGCInterval > 0) {
+			GCCount++;
+			if (GCCount >= _forcedGCInterval) {
+				System.gc();
+				GCCount = 0;
+			}
+		}
 	}
 }
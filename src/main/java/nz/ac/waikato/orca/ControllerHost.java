@@ -0,0 +1,189 @@
+package nz.ac.waikato.orca;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many controllers on one shared scheduled executor instead of a thread
+ * for each controller. Each tick is scheduled as a task at the controllers next
+ * deadline and the runtime of a controller is ended by a scheduled task.
+ *
+ * With virtual threads the executor only keeps the schedule, each task is
+ * handed to a new virtual thread when it is due so a tick that blocks does not
+ * hold up the other controllers.
+ */
+public class ControllerHost {
+
+	private final ScheduledExecutorService _executor;
+	// Only shutdown the executor if it was made by the host
+	private final boolean _ownsExecutor;
+	// Runs each task on its own virtual thread, null runs them on the executor
+	private final ExecutorService _virtualExecutor;
+	private final Set<Controller> _controllers = Collections
+			.newSetFromMap(new ConcurrentHashMap<Controller, Boolean>());
+
+	/**
+	 * Creates a host with its own pool of platform threads
+	 *
+	 * @param threads - The number of threads shared by all the controllers
+	 */
+	public ControllerHost(int threads) throws Exception {
+		this(threads, false);
+	}
+
+	/**
+	 * Creates a host with its own pool of threads
+	 *
+	 * @param threads           - The number of platform threads shared by all
+	 *                          the controllers, with virtual threads these only
+	 *                          start the tasks
+	 * @param useVirtualThreads - True to use virtual threads for the pool, only
+	 *                          available when running on a JVM that has them
+	 * @throws Exception - If virtual threads are asked for and the JVM does not
+	 *                   have them or the number of threads is invalid
+	 */
+	public ControllerHost(int threads, boolean useVirtualThreads) throws Exception {
+		if (threads < 1)
+			throw new Exception("There must be at least one thread");
+		_virtualExecutor = useVirtualThreads ? virtualThreadExecutor() : null;
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, daemonThreadFactory());
+		executor.setRemoveOnCancelPolicy(true);
+		_executor = executor;
+		_ownsExecutor = true;
+	}
+
+	/**
+	 * Creates a host that runs on an executor that is already in use, the
+	 * executor is not shutdown by the host
+	 *
+	 * @param executor - The executor to run the controllers on
+	 */
+	public ControllerHost(ScheduledExecutorService executor) throws Exception {
+		if (executor == null)
+			throw new Exception("An executor must be provided");
+		_executor = executor;
+		_ownsExecutor = false;
+		_virtualExecutor = null;
+	}
+
+	/**
+	 * Starts the controller on the shared executor
+	 *
+	 * @param controller  - The controller to start
+	 * @param printOutput - Boolean to weather or not the output of measure should
+	 *                    be printed
+	 * @throws Exception - If the controller is already running or the host has
+	 *                   been shutdown
+	 */
+	public void start(Controller controller, boolean printOutput) throws Exception {
+		start(controller, printOutput, 0);
+	}
+
+	/**
+	 * Starts the controller on the shared executor
+	 *
+	 * @param controller      - The controller to start
+	 * @param printOutput     - Boolean to weather or not the output of measure
+	 *                        should be printed
+	 * @param skipPrintOutput - Integer indecating the number of measures to skip
+	 *                        printing
+	 * @throws Exception - If the controller is already running or the host has
+	 *                   been shutdown
+	 */
+	public void start(Controller controller, boolean printOutput, int skipPrintOutput) throws Exception {
+		if (_executor.isShutdown())
+			throw new Exception("Unable to start a controller on a host that has been shutdown");
+		if (skipPrintOutput < 0)
+			skipPrintOutput = 0;
+		_controllers.add(controller);
+		try {
+			controller.startHosted(this, printOutput, skipPrintOutput);
+		} catch (Exception e) {
+			_controllers.remove(controller);
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops all the controllers and shuts down the executor if it was made by
+	 * the host
+	 */
+	public void shutdown() {
+		for (Controller controller : _controllers) {
+			controller.stop();
+		}
+		if (_ownsExecutor)
+			_executor.shutdown();
+		if (_virtualExecutor != null)
+			_virtualExecutor.shutdown();
+	}
+
+	/**
+	 * @return - The number of controllers running on this host
+	 */
+	public int getNumberOfControllers() {
+		return _controllers.size();
+	}
+
+	/**
+	 * Schedules a task of a controller, the task is run on a virtual thread when
+	 * the host uses them
+	 */
+	ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit) {
+		final Executor virtualExecutor = _virtualExecutor;
+		if (virtualExecutor == null)
+			return _executor.schedule(task, delay, unit);
+		return _executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				virtualExecutor.execute(task);
+			}
+		}, delay, unit);
+	}
+
+	/**
+	 * Called by the controller once it has stopped
+	 */
+	void remove(Controller controller) {
+		_controllers.remove(controller);
+	}
+
+	private static ThreadFactory daemonThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger nextThread = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ControllerHost-" + nextThread.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Gets an executor that starts a virtual thread for each task through
+	 * reflection so the library still runs on JVMs that do not have virtual
+	 * threads
+	 */
+	private static ExecutorService virtualThreadExecutor() throws Exception {
+		try {
+			Method executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) executor.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new Exception("Virtual threads are not available on this JVM", e);
+		}
+	}
+}
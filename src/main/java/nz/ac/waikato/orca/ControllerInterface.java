@@ -3,7 +3,7 @@ package nz.ac.waikato.orca;
 public interface ControllerInterface {
 
 	public enum controllerType {
-		NULL("null"), PID("pid"), LQR("lqr");
+		NULL("null"), PID("pid"), LQR("lqr"), MPC("mpc");
 
 		private String stringName;
 
@@ -21,9 +21,10 @@ public interface ControllerInterface {
 	 * @param parameters
 	 * @param measurements
 	 * @param setpoints
+	 * @param dtSec        - The time since the last tick in seconds
 	 * @return - True if the controller could be evaluated
 	 */
-	boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Double[] setpoints, long dtSec);
+	boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints, double dtSec);
 
 	double[] get();
 }
\ No newline at end of file
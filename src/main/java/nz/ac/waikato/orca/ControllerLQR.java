@@ -1,29 +1,81 @@
 package nz.ac.waikato.orca;
 
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
 import com.mccarthy.control.LQR;
 import com.mccarthy.control.SS;
 import com.mccarthy.control.UnableToEvaluateStateSolution;
 
-public class ControllerLQR extends ControllerHead {
+public class ControllerLQR extends ControllerHead implements ControllerModelInterface, ControllerSnapshotInterface,
+		ModelAwareInterface {
+
+	/**
+	 * Holds a system and the gain solved for it. A new Gain is built for every
+	 * model change and published as a whole, so evaluate never sees the B of one
+	 * model with the K of another
+	 */
+	private static final class Gain {
+		private final SS sys;
+		private final DMatrixRMaj B;
+		private final DMatrixRMaj K;
+
+		private Gain(SS sys, double[][] B, LQR stateSolution) {
+			this.sys = sys;
+			this.B = new DMatrixRMaj(B);
+			this.K = new DMatrixRMaj(stateSolution.getK().getDDRM());
+		}
+	}
 
-	private SS sys;
-	private LQR stateSolution;
 	private SimpleMatrix Q;
 	private SimpleMatrix R;
 
-	private SimpleMatrix _x;
-	private SimpleMatrix _y = null;
-	private SimpleMatrix _u;
+	/**
+	 * Holds the gain, when background solving is enabled a new B is solved on
+	 * the solver thread without blocking the control thread
+	 */
+	private volatile boolean _backgroundSolve = false;
+	private final BackgroundRebuild<double[][], Gain> _gain = new BackgroundRebuild<double[][], Gain>(
+			"ControllerLQR-solver") {
+
+		@Override
+		protected Gain build(Gain current, double[][] b) throws Exception {
+			return solve(current, b);
+		}
+	};
+
+	/**
+	 * Work buffers used by evaluate so that a control tick does not allocate
+	 */
+	private DMatrixRMaj _A;
+	private DMatrixRMaj _C;
+	private DMatrixRMaj _D;
+
+	private DMatrixRMaj _x;
+	private DMatrixRMaj _xNext;
+	private DMatrixRMaj _y;
+	private DMatrixRMaj _u;
+	private DMatrixRMaj _r;
+	private DMatrixRMaj _error;
 
 	private int[] _uIDs;
+	// Encodes the measurements for the Kalman filter
+	private ModelLQR _model = new ModelLQR();
 
-	private boolean start = true;
+	/**
+	 * Handles the optional steady state Kalman filter that corrects the state
+	 * with the measurements each tick, null when it is not used
+	 */
+	private static final int KALMANMAXITERATIONS = 10000;
+	private static final double KALMANTOLERANCE = 1e-10;
+	private volatile DMatrixRMaj _kalmanGain;
+	private DMatrixRMaj _measured;
+	private DMatrixRMaj _innovation;
 
 	/**
 	 * Puts together the required elements for an LQR controller
-	 * 
+	 *
 	 * @param A    - The A matrix
 	 * @param B    - The B matrix
 	 * @param C    - The C matrix
@@ -40,47 +92,341 @@ public class ControllerLQR extends ControllerHead {
 	 */
 	public ControllerLQR(double[][] A, double[][] B, double[][] C, double[][] D, double[][] Q, double[][] R, double[] x,
 			double[] u, int[] uIDs) throws UnableToEvaluateStateSolution {
+		SS sys = new SS(new SimpleMatrix(A), new SimpleMatrix(B), new SimpleMatrix(C), new SimpleMatrix(D));
+		this.Q = new SimpleMatrix(Q);
+		this.R = new SimpleMatrix(R);
+		_gain.set(new Gain(sys, B, new LQR(sys, this.Q, this.R)));
+		_A = new DMatrixRMaj(A);
+		_C = new DMatrixRMaj(C);
+		_D = new DMatrixRMaj(D);
 
 		// Creates the x and u matrix
-		double[][] tmpx = new double[x.length][1];
-		double[][] tmpu = new double[u.length][1];
+		_x = new DMatrixRMaj(x.length, 1);
+		_xNext = new DMatrixRMaj(x.length, 1);
+		_r = new DMatrixRMaj(x.length, 1);
+		_error = new DMatrixRMaj(x.length, 1);
+		_y = new DMatrixRMaj(C.length, 1);
+		_u = new DMatrixRMaj(u.length, 1);
 		for (int i = 0; i < x.length; i++) {
-			tmpx[i][0] = x[i];
+			_x.set(i, 0, x[i]);
 		}
 		for (int i = 0; i < u.length; i++) {
-			tmpu[i][0] = Math.log(u[i]);
+			_u.set(i, 0, Math.log(u[i]));
 		}
-		sys = new SS(new SimpleMatrix(A), new SimpleMatrix(B), new SimpleMatrix(C), new SimpleMatrix(D));
-		this.Q = new SimpleMatrix(Q);
-		this.R = new SimpleMatrix(R);
-		stateSolution = new LQR(this.sys, this.Q, this.R);
-		_x = new SimpleMatrix(tmpx);
-		_u = new SimpleMatrix(tmpu);
-		_x = sys.stepSystem(_x, _u);
-		_y = sys.getOutputVector(_x, _u);
+		stepSystem(_gain.get().B);
 		_uIDs = uIDs;
 	}
 
+	/**
+	 * Warm starts the controller from a snapshot, B, x and u are taken from the
+	 * snapshot when it has them otherwise the values given are used
+	 *
+	 * @param snapshot - The snapshot saved by a controller with the same A, C and
+	 *                 D
+	 * @throws Exception - If the snapshot does not match the matrix
+	 */
+	public ControllerLQR(double[][] A, double[][] B, double[][] C, double[][] D, double[][] Q, double[][] R, double[] x,
+			double[] u, int[] uIDs, ControllerSnapshot snapshot) throws Exception {
+		this(A, ControllerSnapshot.get(snapshot, ControllerSnapshot.B, B), C, D, Q, R, x, u, uIDs);
+		if (snapshot != null)
+			loadVectors(snapshot);
+	}
+
+	/**
+	 * Updates the B matrix and solves for the new gain. If background solving is
+	 * enabled the solve is handed to the solver thread and this returns
+	 * straight away, the current gain is used until the new one is ready
+	 *
+	 * @param b - The new B matrix
+	 * @throws UnableToEvaluateStateSolution - If the gain could not be solved,
+	 *                                       only thrown when solving on the
+	 *                                       calling thread
+	 */
+	@Override
 	public void UpdateB(double[][] b) throws UnableToEvaluateStateSolution {
-		SimpleMatrix B = new SimpleMatrix(b);
-		SS newSys = new SS(sys.copyA(), B, sys.copyC(), sys.copyD());
-		LQR newStateSolution = new LQR(newSys, this.Q, this.R);
-		this.sys = newSys;
-		this.stateSolution = newStateSolution;
+		if (!_backgroundSolve) {
+			_gain.set(solve(_gain.get(), b));
+			return;
+		}
+		_gain.submit(b);
+	}
+
+	private Gain solve(Gain current, double[][] b) throws UnableToEvaluateStateSolution {
+		SS newSys = new SS(current.sys.copyA(), new SimpleMatrix(b), current.sys.copyC(), current.sys.copyD());
+		return new Gain(newSys, b, new LQR(newSys, this.Q, this.R));
+	}
+
+	/**
+	 * Sets weather UpdateB solves for the new gain on a background thread or on
+	 * the calling thread
+	 *
+	 * @param backgroundSolve - True to solve on a background thread
+	 */
+	@Override
+	public void setBackgroundSolve(boolean backgroundSolve) {
+		_backgroundSolve = backgroundSolve;
 	}
 
+	/**
+	 * Shuts down the solver thread, a pending solve is finished first. The thread
+	 * is made again by the next background solve
+	 */
 	@Override
-	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Double[] setpoints, long dtSec) {
+	public void close() {
+		_gain.close();
+	}
+
+	public boolean isBackgroundSolve() {
+		return _backgroundSolve;
+	}
+
+	/**
+	 * @return - True if a B has been given to UpdateB that has not been solved
+	 *         yet
+	 */
+	public boolean isSolvePending() {
+		return _gain.isPending();
+	}
+
+	/**
+	 * @return - The last error from the background solver or null if there has
+	 *         not been one
+	 */
+	public Exception getLastSolveError() {
+		return _gain.getLastError();
+	}
+
+	/**
+	 * Steps the state forward and updates the output using the work buffers, the
+	 * same as sys.stepSystem followed by sys.getOutputVector but without
+	 * allocating new matrices
+	 */
+	private void stepSystem(DMatrixRMaj B) {
+		// x = Ax + Bu
+		CommonOps_DDRM.mult(_A, _x, _xNext);
+		CommonOps_DDRM.multAdd(B, _u, _xNext);
+		DMatrixRMaj tmp = _x;
+		_x = _xNext;
+		_xNext = tmp;
+		// y = Cx + Du
+		CommonOps_DDRM.mult(_C, _x, _y);
+		CommonOps_DDRM.multAdd(_D, _u, _y);
+	}
+
+	/**
+	 * Uses a steady state Kalman filter to correct the state with the encoded
+	 * measurements each tick, with the same noise on every state and measurement
+	 *
+	 * @param processNoise     - The variance of the noise on each state
+	 * @param measurementNoise - The variance of the noise on each measurement
+	 * @throws Exception - If the noise is invalid or the filter does not settle
+	 */
+	public void setKalmanFilter(double processNoise, double measurementNoise) throws Exception {
+		double[][] W = new double[_A.numRows][_A.numRows];
+		double[][] V = new double[_C.numRows][_C.numRows];
+		for (int i = 0; i < W.length; i++) {
+			W[i][i] = processNoise;
+		}
+		for (int i = 0; i < V.length; i++) {
+			V[i][i] = measurementNoise;
+		}
+		setKalmanFilter(W, V);
+	}
+
+	/**
+	 * Uses a steady state Kalman filter to correct the state with the encoded
+	 * measurements each tick. The gain is found once by iterating the Riccati
+	 * equation of the filter as it does not depend on B
+	 *
+	 * @param W - The covariance of the process noise, a row for each state
+	 * @param V - The covariance of the measurement noise, a row for each
+	 *          measurement
+	 * @throws Exception - If the matrix do not match, are not symmetric, W is
+	 *                   not positive semi definite, V is not positive definite
+	 *                   or the filter does not settle
+	 */
+	public void setKalmanFilter(double[][] W, double[][] V) throws Exception {
+		int n = _A.numRows;
+		int p = _C.numRows;
+		if (!isSquare(W, n) || !isSquare(V, p))
+			throw new Exception("W must match the states and V must match the measurements");
+		if (!isSymmetric(W) || !isSymmetric(V))
+			throw new Exception("The noise covariances must be symmetric");
+		// W may leave a state without noise so it only has to be semi definite
+		if (!isPositiveDefinite(W, KALMANTOLERANCE * Math.max(1, maxAbs(W))))
+			throw new Exception("W must be positive semi definite");
+		if (!isPositiveDefinite(V, 0))
+			throw new Exception("V must be positive definite");
+		DMatrixRMaj w = new DMatrixRMaj(W);
+		DMatrixRMaj v = new DMatrixRMaj(V);
+		DMatrixRMaj P = new DMatrixRMaj(w);
+		DMatrixRMaj next = new DMatrixRMaj(n, n);
+		DMatrixRMaj AP = new DMatrixRMaj(n, n);
+		DMatrixRMaj CP = new DMatrixRMaj(p, n);
+		DMatrixRMaj S = new DMatrixRMaj(p, p);
+		DMatrixRMaj SInverse = new DMatrixRMaj(p, p);
+		DMatrixRMaj L = new DMatrixRMaj(n, p);
+		DMatrixRMaj LCP = new DMatrixRMaj(n, n);
+		DMatrixRMaj posterior = new DMatrixRMaj(n, n);
+		boolean settled = false;
+		for (int i = 0; i < KALMANMAXITERATIONS && !settled; i++) {
+			// L = PC'(CPC' + V)^-1
+			CommonOps_DDRM.mult(_C, P, CP);
+			CommonOps_DDRM.multTransB(CP, _C, S);
+			CommonOps_DDRM.addEquals(S, v);
+			if (!CommonOps_DDRM.invert(S, SInverse))
+				throw new Exception("Unable to invert the innovation covariance");
+			CommonOps_DDRM.multTransA(CP, SInverse, L);
+			// P = A(P - LCP)A' + W
+			CommonOps_DDRM.mult(L, CP, LCP);
+			CommonOps_DDRM.subtract(P, LCP, posterior);
+			CommonOps_DDRM.mult(_A, posterior, AP);
+			CommonOps_DDRM.multTransB(AP, _A, next);
+			CommonOps_DDRM.addEquals(next, w);
+			// Settled once the change is small next to the size of the covariances
+			CommonOps_DDRM.subtract(next, P, LCP);
+			double scale = Math.max(CommonOps_DDRM.elementMaxAbs(next), Math.max(maxAbs(W), maxAbs(V)));
+			settled = CommonOps_DDRM.elementMaxAbs(LCP) <= KALMANTOLERANCE * scale;
+			P.set(next);
+		}
+		if (!settled)
+			throw new Exception("The Kalman filter did not settle in " + KALMANMAXITERATIONS + " iterations");
+		// The gain of the settled prior covariance
+		CommonOps_DDRM.mult(_C, P, CP);
+		CommonOps_DDRM.multTransB(CP, _C, S);
+		CommonOps_DDRM.addEquals(S, v);
+		if (!CommonOps_DDRM.invert(S, SInverse))
+			throw new Exception("Unable to invert the innovation covariance");
+		CommonOps_DDRM.multTransA(CP, SInverse, L);
+		_measured = new DMatrixRMaj(p, 1);
+		_innovation = new DMatrixRMaj(p, 1);
+		_kalmanGain = L;
+	}
+
+	private static boolean isSquare(double[][] M, int size) {
+		if (M == null || M.length != size)
+			return false;
+		for (int i = 0; i < size; i++) {
+			if (M[i] == null || M[i].length != size)
+				return false;
+		}
+		return true;
+	}
+
+	private static double maxAbs(double[][] M) {
+		double returnValue = 0;
+		for (int i = 0; i < M.length; i++) {
+			for (int j = 0; j < M[i].length; j++) {
+				returnValue = Math.max(returnValue, Math.abs(M[i][j]));
+			}
+		}
+		return returnValue;
+	}
+
+	private static boolean isSymmetric(double[][] M) {
+		double tolerance = KALMANTOLERANCE * Math.max(1, maxAbs(M));
+		for (int i = 0; i < M.length; i++) {
+			for (int j = i + 1; j < M.length; j++) {
+				if (Math.abs(M[i][j] - M[j][i]) > tolerance)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks a symmetric matrix with a Cholesky decomposition, every pivot must
+	 * be positive once the shift is added to the diagonal
+	 *
+	 * @param M     - The symmetric matrix
+	 * @param shift - Zero to check for positive definite or a small value to
+	 *              allow the zero pivots of a semi definite matrix
+	 * @return - If the decomposition succeeded
+	 */
+	private static boolean isPositiveDefinite(double[][] M, double shift) {
+		int size = M.length;
+		double[][] L = new double[size][size];
+		for (int j = 0; j < size; j++) {
+			double pivot = M[j][j] + shift;
+			for (int k = 0; k < j; k++) {
+				pivot -= L[j][k] * L[j][k];
+			}
+			if (!(pivot > 0))
+				return false;
+			L[j][j] = Math.sqrt(pivot);
+			for (int i = j + 1; i < size; i++) {
+				double value = M[i][j];
+				for (int k = 0; k < j; k++) {
+					value -= L[i][k] * L[j][k];
+				}
+				L[i][j] = value / L[j][j];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops correcting the state with the measurements
+	 */
+	public void removeKalmanFilter() {
+		_kalmanGain = null;
+	}
+
+	/**
+	 * @return - The gain of the Kalman filter or null if it is not used
+	 */
+	public double[][] getKalmanGain() {
+		DMatrixRMaj L = _kalmanGain;
+		if (L == null)
+			return null;
+		double[][] returnValue = new double[L.numRows][L.numCols];
+		for (int i = 0; i < L.numRows; i++) {
+			for (int j = 0; j < L.numCols; j++) {
+				returnValue[i][j] = L.get(i, j);
+			}
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Corrects the predicted state with the measurements, x = x + L(z - y). The
+	 * tick is not corrected if a measurement can not be encoded
+	 */
+	private void correctState(DMatrixRMaj L, double[] measurements) {
+		if (measurements == null || measurements.length < _measured.numRows)
+			return;
+		for (int i = 0; i < _measured.numRows; i++) {
+			if (!(measurements[i] > 0))
+				return;
+			_measured.set(i, 0, _model.encodeMeasurement(measurements[i], i));
+		}
+		CommonOps_DDRM.subtract(_measured, _y, _innovation);
+		CommonOps_DDRM.multAdd(L, _innovation, _x);
+		// y = Cx + Du
+		CommonOps_DDRM.mult(_C, _x, _y);
+		CommonOps_DDRM.multAdd(_D, _u, _y);
+	}
+
+	@Override
+	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+			double dtSec) {
 		if (areAllSetpointsNull(setpoints))
 			return false;
-		double[][] r = new double[2][1];
-		r[0][0] = setpoints[0];
-		r[1][0] = setpoints[1];
-		SimpleMatrix _r = new SimpleMatrix(r);
-		_x = sys.stepSystem(_x, _u);
-		_y = sys.getOutputVector(_x, _u);
-		_u = _u.minus(stateSolution.getK().negative().mult(_r.minus(_x)));
-		for (int i = 0; i < _u.numRows(); i++) {
+		// Read the gain once so the whole tick uses the same model
+		Gain gain = _gain.get();
+		stepSystem(gain.B);
+		DMatrixRMaj kalmanGain = _kalmanGain;
+		if (kalmanGain != null)
+			correctState(kalmanGain, measurements);
+		// A state without a setpoint is left where it is
+		for (int i = 0; i < _r.numRows; i++) {
+			boolean hasSetpoint = i < setpoints.size() && setpoints.has(i);
+			_r.set(i, 0, hasSetpoint ? setpoints.get(i) : _x.get(i, 0));
+		}
+		// u = u - (-K(r - x)) = u + K(r - x)
+		CommonOps_DDRM.subtract(_r, _x, _error);
+		CommonOps_DDRM.multAdd(gain.K, _error, _u);
+		for (int i = 0; i < _u.numRows; i++) {
 			for (ParameterInterface<?> p : parameters) {
 				if (p.getID() == _uIDs[i]) {
 					p.set(ModelLQR.decodeParameter(_u.get(i, 0)));
@@ -91,15 +437,81 @@ public class ControllerLQR extends ControllerHead {
 		return true;
 	}
 
+	@Override
+	public void setModel(ModelLQR model) {
+		_model = model;
+	}
+
+	@Override
+	public ModelLQR getModel() {
+		return _model;
+	}
+
+	@Override
+	public void saveState(ControllerSnapshot snapshot) {
+		DMatrixRMaj B = _gain.get().B;
+		double[][] b = new double[B.numRows][B.numCols];
+		for (int i = 0; i < B.numRows; i++) {
+			for (int j = 0; j < B.numCols; j++) {
+				b[i][j] = B.get(i, j);
+			}
+		}
+		snapshot.put(ControllerSnapshot.B, b);
+		double[] x = new double[_x.numRows];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = _x.get(i, 0);
+		}
+		snapshot.put(ControllerSnapshot.STATE, x);
+		double[] u = new double[_u.numRows];
+		for (int i = 0; i < u.length; i++) {
+			u[i] = ModelLQR.decodeParameter(_u.get(i, 0));
+		}
+		snapshot.put(ControllerSnapshot.INPUT, u);
+	}
+
+	@Override
+	public void loadState(ControllerSnapshot snapshot) throws Exception {
+		double[][] b = snapshot.get(ControllerSnapshot.B);
+		if (b != null) {
+			if (b.length != _x.numRows || b[0].length != _u.numRows)
+				throw new Exception("The B in the snapshot does not match the controller");
+			UpdateB(b);
+		}
+		loadVectors(snapshot);
+	}
+
+	/**
+	 * Sets x and u from the snapshot without stepping the system
+	 */
+	private void loadVectors(ControllerSnapshot snapshot) throws Exception {
+		double[] x = snapshot.getRow(ControllerSnapshot.STATE);
+		double[] u = snapshot.getRow(ControllerSnapshot.INPUT);
+		if ((x != null && x.length != _x.numRows) || (u != null && u.length != _u.numRows))
+			throw new Exception("The x and u in the snapshot do not match the controller");
+		if (x != null) {
+			for (int i = 0; i < x.length; i++) {
+				_x.set(i, 0, x[i]);
+			}
+		}
+		if (u != null) {
+			for (int i = 0; i < u.length; i++) {
+				_u.set(i, 0, ModelLQR.encodeParameter(u[i]));
+			}
+		}
+		// y = Cx + Du
+		CommonOps_DDRM.mult(_C, _x, _y);
+		CommonOps_DDRM.multAdd(_D, _u, _y);
+	}
+
 	@Override
 	public double[] get() {
 		if (_y == null)
 			return null;
-		double[] returnValue = new double[_y.numRows()];
-		for (int i = 0; i < _y.numRows(); i++) {
+		double[] returnValue = new double[_y.numRows];
+		for (int i = 0; i < _y.numRows; i++) {
 			returnValue[i] = _y.get(i, 0);
 		}
 		return returnValue;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,508 @@
+package nz.ac.waikato.orca;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * A model predictive controller for the ModelLQR model, x = Ax + Bu where the
+ * states are the encoded measurements and u is the log of the parameters.
+ *
+ * Each tick the moves over a horizon are planned by solving a small quadratic
+ * program with the parameter bounds and a limit on how far a parameter can move
+ * in one tick, then the first move is used. The cost is the distance of each
+ * predicted state from its setpoint weighted by Q plus the size of each move
+ * weighted by R. The QP is solved with an accelerated projected gradient
+ * starting from the last plan so only a few iterations are needed each tick.
+ *
+ * Unlike ControllerLQR the plan starts from the parameter values actually set,
+ * so a parameter held at its bound does not wind up.
+ */
+public class ControllerMPC extends ControllerHead implements ControllerModelInterface, ControllerSnapshotInterface,
+		ModelAwareInterface {
+
+	private static final int DEFAULTMAXITERATIONS = 100;
+	private static final double TOLERANCE = 1e-6;
+	private static final int POWERITERATIONS = 50;
+
+	/**
+	 * Holds everything built from B. A new Model is built for every model change
+	 * and published as a whole
+	 */
+	private static final class Model {
+		private final DMatrixRMaj B;
+		// Maps the starting state to the predicted states over the horizon
+		private final DMatrixRMaj Phi;
+		// The QP is 1/2 U'HU + f'U with f = F(Phi x - r) - [Ru; 0...]
+		private final DMatrixRMaj H;
+		private final DMatrixRMaj F;
+		private final double step;
+
+		private Model(DMatrixRMaj B, DMatrixRMaj Phi, DMatrixRMaj H, DMatrixRMaj F, double step) {
+			this.B = B;
+			this.Phi = Phi;
+			this.H = H;
+			this.F = F;
+			this.step = step;
+		}
+	}
+
+	private final int _states;
+	private final int _inputs;
+	private final int _horizon;
+	private final DMatrixRMaj _A;
+	private final DMatrixRMaj _Q;
+	private final DMatrixRMaj _R;
+	private final int[] _uIDs;
+	// Encodes the measurements into the state
+	private ModelLQR _encoding = new ModelLQR();
+	// The most the log of a parameter can change in one tick
+	private final double _maxStep;
+	private int _maxIterations = DEFAULTMAXITERATIONS;
+
+	/**
+	 * Holds the model, when background solving is enabled a new B is built on
+	 * the solver thread and only the latest B is built if several arrive while a
+	 * build is running
+	 */
+	private volatile boolean _backgroundSolve = false;
+	private final BackgroundRebuild<double[][], Model> _model = new BackgroundRebuild<double[][], Model>(
+			"ControllerMPC-solver") {
+
+		@Override
+		protected Model build(Model current, double[][] b) {
+			return buildModel(b);
+		}
+	};
+
+	/**
+	 * Work buffers used by evaluate so that a control tick does not allocate
+	 */
+	private final DMatrixRMaj _x;
+	private final DMatrixRMaj _xNext;
+	private final DMatrixRMaj _u;
+	private final DMatrixRMaj _Ru;
+	private final DMatrixRMaj _free;
+	private final DMatrixRMaj _f;
+	private final DMatrixRMaj _U;
+	private final DMatrixRMaj _Y;
+	private final DMatrixRMaj _gradient;
+	private final double[] _lower;
+	private final double[] _upper;
+	private int _lastIterations = 0;
+
+	// The place of each parameter in u, resolved from the IDs on the first
+	// evaluate
+	private ParameterInterface<?>[] _resolvedParameters;
+	private int[] _places;
+
+	/**
+	 * @param A         - The A matrix
+	 * @param B         - The B matrix
+	 * @param Q         - The weight of the distance of each state from its
+	 *                  setpoint
+	 * @param R         - The weight of the size of the move of each parameter
+	 * @param x         - The starting state
+	 * @param u         - The starting value of each parameter
+	 * @param uIDs      - A list of parameter IDs for the given parameters in u.
+	 *                  NOTE: the order of the IDs must be the same as u
+	 * @param horizon   - The number of ticks planned
+	 * @param maxChange - The most a parameter can change in one tick as a
+	 *                  fraction of its value, 0.1 allows a change of 10%
+	 * @throws Exception - If any of the matrix do not match or the horizon or
+	 *                   change are invalid
+	 */
+	public ControllerMPC(double[][] A, double[][] B, double[][] Q, double[][] R, double[] x, double[] u, int[] uIDs,
+			int horizon, double maxChange) throws Exception {
+		if (A.length != x.length || A[0].length != x.length || B.length != x.length)
+			throw new Exception("A and B must have a row for each state");
+		if (B[0].length != u.length || uIDs.length != u.length)
+			throw new Exception("B must have a column for each parameter");
+		if (Q.length != x.length || Q[0].length != x.length || R.length != u.length || R[0].length != u.length)
+			throw new Exception("Q and R must match the states and parameters");
+		if (horizon < 1 || !(maxChange > 0))
+			throw new Exception("The horizon and the change must be greater than 0");
+		_states = x.length;
+		_inputs = u.length;
+		_horizon = horizon;
+		_A = new DMatrixRMaj(A);
+		_Q = new DMatrixRMaj(Q);
+		_R = new DMatrixRMaj(R);
+		_uIDs = uIDs.clone();
+		_maxStep = Math.log1p(maxChange);
+		_model.set(buildModel(B));
+
+		_x = new DMatrixRMaj(_states, 1);
+		_xNext = new DMatrixRMaj(_states, 1);
+		_u = new DMatrixRMaj(_inputs, 1);
+		_Ru = new DMatrixRMaj(_inputs, 1);
+		_free = new DMatrixRMaj(_states * horizon, 1);
+		_f = new DMatrixRMaj(_inputs * horizon, 1);
+		_U = new DMatrixRMaj(_inputs * horizon, 1);
+		_Y = new DMatrixRMaj(_inputs * horizon, 1);
+		_gradient = new DMatrixRMaj(_inputs * horizon, 1);
+		_lower = new double[_inputs * horizon];
+		_upper = new double[_inputs * horizon];
+		for (int i = 0; i < _states; i++) {
+			_x.set(i, 0, x[i]);
+		}
+		for (int j = 0; j < _inputs; j++) {
+			_u.set(j, 0, ModelLQR.encodeParameter(u[j]));
+			for (int k = 0; k < horizon; k++) {
+				_U.set(k * _inputs + j, 0, _u.get(j, 0));
+			}
+		}
+	}
+
+	/**
+	 * Warm starts the controller from a snapshot, B, x and u are taken from the
+	 * snapshot when it has them otherwise the values given are used
+	 *
+	 * @param snapshot - The snapshot saved by a controller with the same A
+	 * @throws Exception - If the snapshot does not match the matrix
+	 */
+	public ControllerMPC(double[][] A, double[][] B, double[][] Q, double[][] R, double[] x, double[] u, int[] uIDs,
+			int horizon, double maxChange, ControllerSnapshot snapshot) throws Exception {
+		this(A, ControllerSnapshot.get(snapshot, ControllerSnapshot.B, B), Q, R,
+				ControllerSnapshot.getRow(snapshot, ControllerSnapshot.STATE, x),
+				ControllerSnapshot.getRow(snapshot, ControllerSnapshot.INPUT, u), uIDs, horizon, maxChange);
+	}
+
+	/**
+	 * Builds the prediction and QP matrices for a B
+	 */
+	private Model buildModel(double[][] b) {
+		int n = _states;
+		int m = _inputs;
+		int N = _horizon;
+		DMatrixRMaj B = new DMatrixRMaj(b);
+		DMatrixRMaj Phi = new DMatrixRMaj(n * N, n);
+		// Maps the horizon moves to the predicted states
+		DMatrixRMaj Gamma = new DMatrixRMaj(n * N, m * N);
+		// A^k and A^k B for each step of the horizon
+		DMatrixRMaj Ak = new DMatrixRMaj(_A);
+		DMatrixRMaj[] AkB = new DMatrixRMaj[N];
+		AkB[0] = new DMatrixRMaj(B);
+		for (int k = 0; k < N; k++) {
+			CommonOps_DDRM.insert(Ak, Phi, k * n, 0);
+			if (k + 1 < N) {
+				DMatrixRMaj next = new DMatrixRMaj(n, n);
+				CommonOps_DDRM.mult(_A, Ak, next);
+				Ak = next;
+				AkB[k + 1] = new DMatrixRMaj(n, m);
+				CommonOps_DDRM.mult(_A, AkB[k], AkB[k + 1]);
+			}
+		}
+		// x(k+1) = A^(k+1) x + sum A^(k-j) B u(j)
+		for (int k = 0; k < N; k++) {
+			for (int j = 0; j <= k; j++) {
+				CommonOps_DDRM.insert(AkB[k - j], Gamma, k * n, j * m);
+			}
+		}
+		DMatrixRMaj Qbar = new DMatrixRMaj(n * N, n * N);
+		DMatrixRMaj Rbar = new DMatrixRMaj(m * N, m * N);
+		// D takes the moves from the plan, u(k) - u(k-1)
+		DMatrixRMaj D = new DMatrixRMaj(m * N, m * N);
+		for (int k = 0; k < N; k++) {
+			CommonOps_DDRM.insert(_Q, Qbar, k * n, k * n);
+			CommonOps_DDRM.insert(_R, Rbar, k * m, k * m);
+			for (int j = 0; j < m; j++) {
+				D.set(k * m + j, k * m + j, 1);
+				if (k > 0)
+					D.set(k * m + j, (k - 1) * m + j, -1);
+			}
+		}
+		DMatrixRMaj F = new DMatrixRMaj(m * N, n * N);
+		CommonOps_DDRM.multTransA(Gamma, Qbar, F);
+		DMatrixRMaj H = new DMatrixRMaj(m * N, m * N);
+		CommonOps_DDRM.mult(F, Gamma, H);
+		DMatrixRMaj DtR = new DMatrixRMaj(m * N, m * N);
+		CommonOps_DDRM.multTransA(D, Rbar, DtR);
+		CommonOps_DDRM.multAdd(DtR, D, H);
+		return new Model(B, Phi, H, F, 1 / largestEigenvalue(H));
+	}
+
+	/**
+	 * Finds the largest eigenvalue of H with the power method, used for the
+	 * gradient step. A little is added so the step is never too long
+	 */
+	private static double largestEigenvalue(DMatrixRMaj H) {
+		int size = H.getNumRows();
+		DMatrixRMaj v = new DMatrixRMaj(size, 1);
+		DMatrixRMaj Hv = new DMatrixRMaj(size, 1);
+		CommonOps_DDRM.fill(v, 1 / Math.sqrt(size));
+		double eigenvalue = 0;
+		for (int i = 0; i < POWERITERATIONS; i++) {
+			CommonOps_DDRM.mult(H, v, Hv);
+			double norm = 0;
+			for (int j = 0; j < size; j++) {
+				norm += Hv.get(j, 0) * Hv.get(j, 0);
+			}
+			norm = Math.sqrt(norm);
+			if (!(norm > 0))
+				break;
+			eigenvalue = norm;
+			for (int j = 0; j < size; j++) {
+				v.set(j, 0, Hv.get(j, 0) / norm);
+			}
+		}
+		return (eigenvalue > 0) ? eigenvalue * 1.05 : 1;
+	}
+
+	@Override
+	public void UpdateB(double[][] b) throws Exception {
+		if (b.length != _states || b[0].length != _inputs)
+			throw new Exception("B must have a row for each state and a column for each parameter");
+		if (!_backgroundSolve) {
+			_model.set(buildModel(b));
+			return;
+		}
+		_model.submit(b);
+	}
+
+	@Override
+	public void setBackgroundSolve(boolean backgroundSolve) {
+		_backgroundSolve = backgroundSolve;
+	}
+
+	/**
+	 * Shuts down the solver thread, a pending solve is finished first. The thread
+	 * is made again by the next background solve
+	 */
+	@Override
+	public void close() {
+		_model.close();
+	}
+
+	/**
+	 * @return - The last error from the background build or null if there has
+	 *         not been one
+	 */
+	public Exception getLastSolveError() {
+		return _model.getLastError();
+	}
+
+	/**
+	 * @param maxIterations - The most iterations used to solve the QP each tick
+	 */
+	public void setMaxIterations(int maxIterations) {
+		if (maxIterations > 0)
+			_maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return - The iterations used to solve the QP on the last tick
+	 */
+	public int getLastIterations() {
+		return _lastIterations;
+	}
+
+	private void resolvePlaces(ParameterInterface<?>[] parameters) {
+		if (parameters == _resolvedParameters)
+			return;
+		_places = new int[_inputs];
+		for (int j = 0; j < _inputs; j++) {
+			_places[j] = -1;
+			for (int i = 0; i < parameters.length; i++) {
+				if (parameters[i].getID() == _uIDs[j])
+					_places[j] = i;
+			}
+		}
+		_resolvedParameters = parameters;
+	}
+
+	@Override
+	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+			double dtSec) {
+		if (areAllSetpointsNull(setpoints))
+			return false;
+		resolvePlaces(parameters);
+		// Read the model once so the whole tick uses the same one
+		Model model = _model.get();
+		int n = _states;
+		int m = _inputs;
+
+		// Starts from the measured state, a state that can not be measured is
+		// predicted from the model
+		for (int i = 0; i < n; i++) {
+			if (measurements != null && i < measurements.length && measurements[i] > 0)
+				_x.set(i, 0, _encoding.encodeMeasurement(measurements[i], i));
+		}
+		// Starts from the values actually set so the bounds are never wound past
+		for (int j = 0; j < m; j++) {
+			if (_places[j] >= 0) {
+				double value = parameters[_places[j]].getDouble();
+				if (value > 0)
+					_u.set(j, 0, ModelLQR.encodeParameter(value));
+			}
+		}
+		setBounds(parameters);
+
+		// f = F(Phi x - r) - [Ru; 0...], a state without a setpoint is left where it
+		// is
+		CommonOps_DDRM.mult(model.Phi, _x, _free);
+		for (int k = 0; k < _horizon; k++) {
+			for (int i = 0; i < n; i++) {
+				boolean hasSetpoint = i < setpoints.size() && setpoints.has(i);
+				double r = hasSetpoint ? setpoints.get(i) : _x.get(i, 0);
+				_free.set(k * n + i, 0, _free.get(k * n + i, 0) - r);
+			}
+		}
+		CommonOps_DDRM.mult(model.F, _free, _f);
+		CommonOps_DDRM.mult(_R, _u, _Ru);
+		for (int j = 0; j < m; j++) {
+			_f.set(j, 0, _f.get(j, 0) - _Ru.get(j, 0));
+		}
+
+		// Warm start from the last plan moved on by one tick
+		int size = m * _horizon;
+		for (int i = 0; i < size - m; i++) {
+			_U.set(i, 0, _U.get(i + m, 0));
+		}
+		for (int i = 0; i < size; i++) {
+			_U.set(i, 0, clip(_U.get(i, 0), i));
+		}
+		solve(model, size);
+
+		// Uses the first move of the plan
+		for (int j = 0; j < m; j++) {
+			if (_places[j] < 0)
+				continue;
+			ParameterInterface<?> p = parameters[_places[j]];
+			p.set(ModelLQR.decodeParameter(_U.get(j, 0)));
+			double value = p.getDouble();
+			_u.set(j, 0, (value > 0) ? ModelLQR.encodeParameter(value) : _U.get(j, 0));
+		}
+		// Predicts the next state in case it can not be measured
+		CommonOps_DDRM.mult(_A, _x, _xNext);
+		CommonOps_DDRM.multAdd(model.B, _u, _xNext);
+		_x.set(_xNext);
+		return true;
+	}
+
+	/**
+	 * Limits each move of the plan to the parameter bounds and to the rate from
+	 * the current value. Only the first move is used so the rate of the later
+	 * moves is limited from the current value rather than from each other
+	 */
+	private void setBounds(ParameterInterface<?>[] parameters) {
+		for (int j = 0; j < _inputs; j++) {
+			double lowest = Double.NEGATIVE_INFINITY;
+			double highest = Double.POSITIVE_INFINITY;
+			if (_places[j] >= 0) {
+				ParameterInterface<?> p = parameters[_places[j]];
+				if (p.getMinValue() > 0)
+					lowest = ModelLQR.encodeParameter(p.getMinValue());
+				highest = ModelLQR.encodeParameter(p.getMaxValue());
+			}
+			double current = _u.get(j, 0);
+			for (int k = 0; k < _horizon; k++) {
+				double lower = Math.max(lowest, current - (k + 1) * _maxStep);
+				double upper = Math.min(highest, current + (k + 1) * _maxStep);
+				if (lower > upper)
+					lower = upper;
+				_lower[k * _inputs + j] = lower;
+				_upper[k * _inputs + j] = upper;
+			}
+		}
+	}
+
+	private double clip(double value, int place) {
+		return Math.max(_lower[place], Math.min(value, _upper[place]));
+	}
+
+	/**
+	 * Solves the box constrained QP with an accelerated projected gradient,
+	 * starting from the plan in U
+	 */
+	private void solve(Model model, int size) {
+		_Y.set(_U);
+		double t = 1;
+		int iteration = 0;
+		while (iteration < _maxIterations) {
+			iteration++;
+			// gradient = HY + f
+			CommonOps_DDRM.mult(model.H, _Y, _gradient);
+			double tNext = (1 + Math.sqrt(1 + 4 * t * t)) / 2;
+			double momentum = (t - 1) / tNext;
+			double change = 0;
+			for (int i = 0; i < size; i++) {
+				double next = clip(_Y.get(i, 0) - model.step * (_gradient.get(i, 0) + _f.get(i, 0)), i);
+				double last = _U.get(i, 0);
+				change = Math.max(change, Math.abs(next - last));
+				_U.set(i, 0, next);
+				_Y.set(i, 0, clip(next + momentum * (next - last), i));
+			}
+			t = tNext;
+			if (change < TOLERANCE)
+				break;
+		}
+		_lastIterations = iteration;
+	}
+
+	@Override
+	public void setModel(ModelLQR model) {
+		_encoding = model;
+	}
+
+	@Override
+	public ModelLQR getModel() {
+		return _encoding;
+	}
+
+	@Override
+	public void saveState(ControllerSnapshot snapshot) {
+		DMatrixRMaj B = _model.get().B;
+		double[][] b = new double[B.numRows][B.numCols];
+		for (int i = 0; i < B.numRows; i++) {
+			for (int j = 0; j < B.numCols; j++) {
+				b[i][j] = B.get(i, j);
+			}
+		}
+		snapshot.put(ControllerSnapshot.B, b);
+		snapshot.put(ControllerSnapshot.STATE, get());
+		double[] u = new double[_inputs];
+		for (int j = 0; j < _inputs; j++) {
+			u[j] = ModelLQR.decodeParameter(_u.get(j, 0));
+		}
+		snapshot.put(ControllerSnapshot.INPUT, u);
+	}
+
+	@Override
+	public void loadState(ControllerSnapshot snapshot) throws Exception {
+		double[][] b = snapshot.get(ControllerSnapshot.B);
+		double[] x = snapshot.getRow(ControllerSnapshot.STATE);
+		double[] u = snapshot.getRow(ControllerSnapshot.INPUT);
+		if (b != null && (b.length != _states || b[0].length != _inputs))
+			throw new Exception("The B in the snapshot does not match the controller");
+		if ((x != null && x.length != _states) || (u != null && u.length != _inputs))
+			throw new Exception("The x and u in the snapshot do not match the controller");
+		if (b != null)
+			UpdateB(b);
+		if (x != null) {
+			for (int i = 0; i < _states; i++) {
+				_x.set(i, 0, x[i]);
+			}
+		}
+		if (u != null) {
+			// The plan starts from holding the parameters where they were
+			for (int j = 0; j < _inputs; j++) {
+				_u.set(j, 0, ModelLQR.encodeParameter(u[j]));
+				for (int k = 0; k < _horizon; k++) {
+					_U.set(k * _inputs + j, 0, _u.get(j, 0));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return - The predicted state for the next tick
+	 */
+	@Override
+	public double[] get() {
+		double[] returnValue = new double[_states];
+		for (int i = 0; i < _states; i++) {
+			returnValue[i] = _x.get(i, 0);
+		}
+		return returnValue;
+	}
+}
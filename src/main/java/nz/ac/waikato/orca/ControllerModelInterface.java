@@ -0,0 +1,32 @@
+package nz.ac.waikato.orca;
+
+/**
+ * A controller that works from the ModelLQR state space model. It is given the
+ * encoded setpoints and its B matrix is updated when the Controller refits or
+ * identifies the model.
+ */
+public interface ControllerModelInterface extends ControllerInterface {
+
+	/**
+	 * Updates the B matrix the controller uses
+	 * 
+	 * @param b - The new B matrix, a row for each state and a column for each
+	 *          parameter
+	 * @throws Exception - If the controller can not be set up for the new model
+	 */
+	void UpdateB(double[][] b) throws Exception;
+
+	/**
+	 * Sets weather UpdateB does its work on a background thread or on the calling
+	 * thread
+	 * 
+	 * @param backgroundSolve - True to use a background thread
+	 */
+	void setBackgroundSolve(boolean backgroundSolve);
+
+	/**
+	 * Stops the background thread used by UpdateB if there is one, called by
+	 * Controller when it stops
+	 */
+	void close();
+}
@@ -0,0 +1,240 @@
+package nz.ac.waikato.orca;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latest values and the timings of a Controller for the MBean. The
+ * controller only records to the monitor once it is registered so there is no
+ * cost to a controller that is not watched.
+ *
+ * The values are only written by the thread running the ticks, the MBean server
+ * reads them from its own threads.
+ */
+public class ControllerMonitor implements ControllerMonitorMXBean {
+
+	/**
+	 * The upper bound of each bucket of the duration histograms in nanoseconds,
+	 * from 10 microseconds to a second
+	 */
+	public static final long[] DURATIONBOUNDSNANOS = { 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+			1000000000L };
+
+	private final Controller _controller;
+	private final ParameterInterface<?>[] _parameters;
+	private final AtomicLongArray _tickDurations = new AtomicLongArray(DURATIONBOUNDSNANOS.length + 1);
+	private final AtomicLongArray _evaluateDurations = new AtomicLongArray(DURATIONBOUNDSNANOS.length + 1);
+	private volatile double[] _measurements = new double[0];
+	private volatile double[] _setpoints = new double[0];
+	private volatile long _refits = 0;
+	private volatile long _lastRefitNanos = 0;
+	private volatile long _maxRefitNanos = 0;
+	private volatile long _totalRefitNanos = 0;
+
+	ControllerMonitor(Controller controller, ParameterInterface<?>[] parameters) {
+		_controller = controller;
+		_parameters = (parameters != null) ? parameters : new ParameterInterface<?>[0];
+	}
+
+	/**
+	 * Records the measurements and setpoints of a tick
+	 *
+	 * @param measurements - The measurements, kept as given as a measure returns
+	 *                     a new array each time
+	 * @param setpoints    - The setpoints, copied as a measure fills them in place
+	 */
+	void recordTick(double[] measurements, Setpoints setpoints) {
+		if (measurements != null)
+			_measurements = measurements;
+		if (setpoints != null) {
+			double[] values = new double[setpoints.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = setpoints.has(i) ? setpoints.get(i) : Double.NaN;
+			}
+			_setpoints = values;
+		}
+	}
+
+	void recordTickDuration(long nanos) {
+		_tickDurations.incrementAndGet(bucket(nanos));
+	}
+
+	void recordEvaluateDuration(long nanos) {
+		_evaluateDurations.incrementAndGet(bucket(nanos));
+	}
+
+	void recordRefit(long nanos) {
+		_lastRefitNanos = nanos;
+		if (nanos > _maxRefitNanos)
+			_maxRefitNanos = nanos;
+		_totalRefitNanos += nanos;
+		_refits++;
+	}
+
+	private static int bucket(long nanos) {
+		for (int i = 0; i < DURATIONBOUNDSNANOS.length; i++) {
+			if (nanos < DURATIONBOUNDSNANOS[i])
+				return i;
+		}
+		return DURATIONBOUNDSNANOS.length;
+	}
+
+	private static long[] toArray(AtomicLongArray histogram) {
+		long[] returnValue = new long[histogram.length()];
+		for (int i = 0; i < returnValue.length; i++) {
+			returnValue[i] = histogram.get(i);
+		}
+		return returnValue;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return _controller.isRunning();
+	}
+
+	@Override
+	public boolean isTraining() {
+		return _controller.isTraining();
+	}
+
+	@Override
+	public double[] getMeasurements() {
+		return _measurements.clone();
+	}
+
+	@Override
+	public double[] getSetpoints() {
+		return _setpoints.clone();
+	}
+
+	@Override
+	public String[] getParameterNames() {
+		String[] names = new String[_parameters.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = _parameters[i].getName();
+		}
+		return names;
+	}
+
+	@Override
+	public double[] getParameterValues() {
+		double[] values = new double[_parameters.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = _parameters[i].getAsDouble();
+		}
+		return values;
+	}
+
+	@Override
+	public int getNumberOfControlUpdates() {
+		return _controller.getNumberOfControlUpdates();
+	}
+
+	@Override
+	public int getTargetNumberOfControlUpdates() {
+		return _controller.getTargetNumberOfControlUpdates();
+	}
+
+	@Override
+	public long getIntervalNanos() {
+		return _controller.getIntervalNanos();
+	}
+
+	@Override
+	public long[] getDurationBucketBoundsNanos() {
+		return Arrays.copyOf(DURATIONBOUNDSNANOS, DURATIONBOUNDSNANOS.length);
+	}
+
+	@Override
+	public long[] getTickDurationHistogram() {
+		return toArray(_tickDurations);
+	}
+
+	@Override
+	public long[] getEvaluateDurationHistogram() {
+		return toArray(_evaluateDurations);
+	}
+
+	@Override
+	public long getTicks() {
+		return _controller.getOverrunMonitor().getTicks();
+	}
+
+	@Override
+	public long getMaxTickNanos() {
+		return _controller.getOverrunMonitor().getMaxTickNanos();
+	}
+
+	@Override
+	public String getOverrunPolicy() {
+		return _controller.getOverrunPolicy().name();
+	}
+
+	@Override
+	public long getOverruns() {
+		return _controller.getOverrunMonitor().getOverruns();
+	}
+
+	@Override
+	public long getSkippedTicks() {
+		return _controller.getOverrunMonitor().getSkippedTicks();
+	}
+
+	@Override
+	public long getCaughtUpTicks() {
+		return _controller.getOverrunMonitor().getCaughtUpTicks();
+	}
+
+	@Override
+	public long getDegrades() {
+		return _controller.getOverrunMonitor().getDegrades();
+	}
+
+	@Override
+	public long getRecoveries() {
+		return _controller.getOverrunMonitor().getRecoveries();
+	}
+
+	@Override
+	public long getRefits() {
+		return _refits;
+	}
+
+	@Override
+	public long getLastRefitNanos() {
+		return _lastRefitNanos;
+	}
+
+	@Override
+	public long getMaxRefitNanos() {
+		return _maxRefitNanos;
+	}
+
+	@Override
+	public long getAverageRefitNanos() {
+		long refits = _refits;
+		if (refits == 0)
+			return 0;
+		return _totalRefitNanos / refits;
+	}
+
+	@Override
+	public void setSetpoint(int place, double setpoint) throws Exception {
+		_controller.setSetpoint(place, setpoint);
+	}
+
+	@Override
+	public void clearSetpoint(int place) throws Exception {
+		_controller.setSetpoint(place, null);
+	}
+
+	@Override
+	public void start() throws Exception {
+		_controller.restart();
+	}
+
+	@Override
+	public void stop() {
+		_controller.stop();
+	}
+}
@@ -0,0 +1,100 @@
+package nz.ac.waikato.orca;
+
+/**
+ * The management interface of a running Controller, registered with the
+ * platform MBean server by Controller.registerMBean. The durations are in
+ * nanoseconds on the clock of the controller.
+ */
+public interface ControllerMonitorMXBean {
+
+	boolean isRunning();
+
+	boolean isTraining();
+
+	/**
+	 * @return - The measurements of the last tick
+	 */
+	double[] getMeasurements();
+
+	/**
+	 * @return - The setpoints of the last tick, NaN for the measurements without
+	 *         one
+	 */
+	double[] getSetpoints();
+
+	String[] getParameterNames();
+
+	double[] getParameterValues();
+
+	int getNumberOfControlUpdates();
+
+	int getTargetNumberOfControlUpdates();
+
+	long getIntervalNanos();
+
+	/**
+	 * @return - The upper bound of each duration histogram bucket, the last
+	 *         bucket holds everything over the last bound
+	 */
+	long[] getDurationBucketBoundsNanos();
+
+	long[] getTickDurationHistogram();
+
+	long[] getEvaluateDurationHistogram();
+
+	long getTicks();
+
+	long getMaxTickNanos();
+
+	String getOverrunPolicy();
+
+	long getOverruns();
+
+	long getSkippedTicks();
+
+	long getCaughtUpTicks();
+
+	long getDegrades();
+
+	long getRecoveries();
+
+	/**
+	 * @return - The number of times the model was refit, by training or by the
+	 *         online identification
+	 */
+	long getRefits();
+
+	long getLastRefitNanos();
+
+	long getMaxRefitNanos();
+
+	long getAverageRefitNanos();
+
+	/**
+	 * Changes a setpoint from the next tick
+	 *
+	 * @param place    - The measurement
+	 * @param setpoint - The desired value
+	 * @throws Exception - If the measure does not allow the setpoints to change
+	 *                   or the measurement does not exist
+	 */
+	void setSetpoint(int place, double setpoint) throws Exception;
+
+	/**
+	 * Removes a setpoint from the next tick
+	 *
+	 * @param place - The measurement
+	 * @throws Exception - If the measure does not allow the setpoints to change
+	 *                   or the measurement does not exist
+	 */
+	void clearSetpoint(int place) throws Exception;
+
+	/**
+	 * Starts the controller again the way it was last started
+	 *
+	 * @throws Exception - If the controller is running or still stopping
+	 */
+	void start() throws Exception;
+
+	void stop();
+}
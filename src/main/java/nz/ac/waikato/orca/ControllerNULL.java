@@ -3,7 +3,8 @@ package nz.ac.waikato.orca;
 public class ControllerNULL extends ControllerHead {
 
 	@Override
-	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Double[] setpoints, long dtSec) {
+	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+			double dtSec) {
 		return true;
 	}
 
@@ -1,22 +1,99 @@
 package nz.ac.waikato.orca;
 
-public class ControllerPID extends ControllerHead {
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.ac.waikato.orca.ml.RecursiveLeastSquares;
+
+public class ControllerPID extends ControllerHead implements ControllerSnapshotInterface {
 	public final int INTEGRALHISTORY;
-	private double[] perror = new double[2];
-	private double[] integral = new double[2];
-	private double[][] integralHistory;
-	private int[] integralHistoryPlace = new int[2];
+	// Sized to the number of setpoints on the first evaluate
+	private double[] perror = new double[0];
+	private double[] integral = new double[0];
+	private double[][] integralHistory = new double[0][];
+	private int[] integralHistoryPlace = new int[0];
 	private boolean useIntegralHistory = true;
 
 	private final int ADVRADGEBUFFER = 2;
-	private double[][] RunningMeasure = new double[2][ADVRADGEBUFFER];
-	private int[] RunningMeasurePlace = new int[2];
-	private int[] totalMeasure = new int[2];
-	private double[] MeasureAdv = new double[2];
+	private double[][] RunningMeasure = new double[0][];
+	private int[] RunningMeasurePlace = new int[0];
+	private int[] totalMeasure = new int[0];
+	private double[] MeasureAdv = new double[0];
 	private long dt = 1;
-	private double Kp = 2;
-	private double Ki = 1;
-	private double Kd = 0;
+	// Set by the auto tune and read by other threads
+	private volatile double Kp = 2;
+	private volatile double Ki = 1;
+	private volatile double Kd = 0;
+	// The PID output is divided by this before it is used to move the parameters
+	private static final double OUTPUTSCALE = 5;
+	// The sections saved in a snapshot
+	private static final String SNAPSHOTGAINS = "pid.gains";
+	private static final String SNAPSHOTERROR = "pid.error";
+	private static final String SNAPSHOTINTEGRAL = "pid.integral";
+	private static final String SNAPSHOTINTEGRALHISTORY = "pid.integralHistory";
+	private static final String SNAPSHOTINTEGRALHISTORYPLACE = "pid.integralHistoryPlace";
+
+	/**
+	 * Handles how much each parameter is moved for each unit of the PID output,
+	 * a gain for each measurement and parameter. The gains are resolved from the
+	 * parameter IDs on the first evaluate. Adapting is off by default, when on
+	 * the loop gain, how far each unit of output moves a measurement, is taken
+	 * once the sensitivity has been fitted and the gains then follow the
+	 * sensitivity to keep that loop gain
+	 */
+	private static final double DEFAULTGAINRANGE = 10000;// A parameter with this range starts with a gain of 1
+	private static final double GAINSMOOTHING = 0.1;// How far a gain moves toward the learned gain each update
+	private static final double MAXGAINCHANGE = 100;// How far a learned gain can move from its starting gain
+	private static final double SENSITIVITYFORGETTING = 0.98;
+	// The gains the parameters of the original application were moved by, used
+	// for parameters with these names that have no gain set
+	private static final Map<String, Double> NAMEDGAINS = new HashMap<>();
+	static {
+		NAMEDGAINS.put("Sleep", 3d);
+		NAMEDGAINS.put("Depth", 0.01);
+		NAMEDGAINS.put("Buttons", 0.01);
+		NAMEDGAINS.put("Breadth", 0.01);
+	}
+	private final Map<Integer, Double> _configuredGains = new HashMap<>();
+	private boolean _adaptiveGains = false;
+	private ParameterInterface<?>[] _gainParameters;
+	private double[] _initialGains;
+	private double[][] _actuationGains;
+	private RecursiveLeastSquares[] _sensitivity;
+	// The loop gain of each measurement to keep, NaN until it is taken
+	private double[] _targetLoopGains = new double[0];
+	private double[] _sensitivityInputs;
+	private double[] _lastParameterValues;
+	private double[] _lastMeasurements;
+
+	/**
+	 * Handles the relay auto tune, while it runs the parameters are switched
+	 * between their starting values plus and minus the relay amplitude until the
+	 * measurement oscillates
+	 */
+	private static final int TUNECYCLES = 3;// Number of cycles averaged, after the first
+	private volatile boolean _autoTuning = false;
+	private boolean _tuneStarted;
+	private int _tuneMeasurement;
+	private double _relayAmplitude;
+	private double _relayHysteresis;
+	private int _tuneMaxTicks;
+	private int _tuneTicks;
+	private double _tuneTime;
+	// The measurements of the last tick, each control update in a tick is given
+	// the same measurements
+	private double[] _tuneMeasurements;
+	private double[] _tuneBase;
+	private boolean _relayHigh;
+	private double _lastUpSwitch;
+	private int _tuneCycles;
+	private double _tuneMax;
+	private double _tuneMin;
+	private double _periodSum;
+	private double _amplitudeSum;
+	private volatile double _ultimateGain = Double.NaN;
+	private volatile double _ultimatePeriod = Double.NaN;
 
 	public ControllerPID(double Kp, double Ki, double Kd, int integralHistory) {
 		this.Kp = Kp;
@@ -27,48 +104,177 @@ public class ControllerPID extends ControllerHead {
 			useIntegralHistory = false;
 		} else {
 			useIntegralHistory = true;
-			this.integralHistory = new double[2][INTEGRALHISTORY];
 		}
 	}
 
+	/**
+	 * Warm starts the controller from a snapshot, the gains, errors and
+	 * integrals are taken from the snapshot when it has them
+	 *
+	 * @param snapshot - The snapshot saved by a ControllerPID
+	 * @throws Exception - If the snapshot does not match the integral history
+	 */
+	public ControllerPID(double Kp, double Ki, double Kd, int integralHistory, ControllerSnapshot snapshot)
+			throws Exception {
+		this(Kp, Ki, Kd, integralHistory);
+		if (snapshot != null)
+			loadState(snapshot);
+	}
+
+	private void ensureSize(int size) {
+		if (perror.length == size)
+			return;
+		perror = new double[size];
+		integral = new double[size];
+		integralHistoryPlace = new int[size];
+		integralHistory = new double[size][useIntegralHistory ? INTEGRALHISTORY : 0];
+		RunningMeasure = new double[size][ADVRADGEBUFFER];
+		RunningMeasurePlace = new int[size];
+		totalMeasure = new int[size];
+		MeasureAdv = new double[size];
+	}
+
+	/**
+	 * Sets the starting gain of a parameter. Parameters without one use the gain
+	 * for their name if it is Sleep, Depth, Buttons or Breadth, otherwise they
+	 * start from their range with a range of 10000 giving a gain of 1 and a
+	 * gain of 1 when they are not bounded. Must be called before the controller
+	 * starts
+	 * 
+	 * @param parameterID - The ID of the parameter
+	 * @param gain        - How much the parameter is moved for each unit of the
+	 *                    PID output
+	 * @throws Exception - If the gain is not positive
+	 */
+	public void setActuationGain(int parameterID, double gain) throws Exception {
+		if (!(gain > 0) || Double.isInfinite(gain))
+			throw new Exception("The actuation gain must be greater than 0");
+		_configuredGains.put(parameterID, gain);
+		_gainParameters = null;
+	}
+
+	/**
+	 * Learns the gains from how the measurements respond to the parameters, off
+	 * by default. The loop gain is taken once the sensitivity is fitted, so when
+	 * a parameter later moves a measurement twice as far its gain is halved and
+	 * the PID gains still mean the same thing
+	 * 
+	 * @param adaptive - True to learn the gains, false to keep the current gains
+	 */
+	public void setAdaptiveGains(boolean adaptive) {
+		_adaptiveGains = adaptive;
+		Arrays.fill(_targetLoopGains, Double.NaN);
+	}
+
+	/**
+	 * @param measurement - The place of the measurement
+	 * @param parameterID - The ID of the parameter
+	 * @return - The current gain or NaN if the parameter has not been seen
+	 */
+	public double getActuationGain(int measurement, int parameterID) {
+		ParameterInterface<?>[] parameters = _gainParameters;
+		double[][] gains = _actuationGains;
+		if (parameters == null || gains == null || measurement >= gains.length)
+			return Double.NaN;
+		for (int i = 0; i < parameters.length; i++) {
+			if (parameters[i].getID() == parameterID)
+				return gains[measurement][i];
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Starts the relay auto tune. The parameters are switched between their
+	 * starting values plus and minus the amplitude each time the measurement
+	 * crosses its setpoint, the ultimate gain and period are found from the
+	 * oscillation and the gains are set with the Ziegler-Nichols PI rules. If the
+	 * measurement does not oscillate within the ticks given the gains are kept.
+	 * Either way the parameters are put back to their starting values
+	 * 
+	 * @param measurement - The place of the measurement to tune against, it must
+	 *                    have a setpoint
+	 * @param amplitude   - The size of the relay in the same units as the PID
+	 *                    output
+	 * @param hysteresis  - How far the measurement must cross the setpoint before
+	 *                    the relay switches, stops noise switching it
+	 * @param maxTicks    - The most evaluations the tune can take
+	 * @throws Exception - If the amplitude, hysteresis or ticks are invalid
+	 */
+	public void startAutoTune(int measurement, double amplitude, double hysteresis, int maxTicks) throws Exception {
+		if (measurement < 0 || amplitude <= 0 || hysteresis < 0 || maxTicks <= 0)
+			throw new Exception("Invalid auto tune settings");
+		_tuneMeasurement = measurement;
+		_relayAmplitude = amplitude;
+		_relayHysteresis = hysteresis;
+		_tuneMaxTicks = maxTicks;
+		_tuneStarted = false;
+		// Publishes the settings to the control thread
+		_autoTuning = true;
+	}
+
+	/**
+	 * @return - True while the auto tune is running
+	 */
+	public boolean isAutoTuning() {
+		return _autoTuning;
+	}
+
+	/**
+	 * @return - The ultimate gain found by the last auto tune or NaN
+	 */
+	public double getUltimateGain() {
+		return _ultimateGain;
+	}
+
+	/**
+	 * @return - The ultimate period in seconds found by the last auto tune or NaN
+	 */
+	public double getUltimatePeriod() {
+		return _ultimatePeriod;
+	}
+
+	public double getKp() {
+		return Kp;
+	}
+
+	public double getKi() {
+		return Ki;
+	}
+
+	public double getKd() {
+		return Kd;
+	}
+
 	@Override
-	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Double[] setpoints, long dtSec) {
+	public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+			double dtSec) {
 		if (areAllSetpointsNull(setpoints))
 			return false;
-		for (int i = 0; i < setpoints.length; i++) {
-			Double setpoint = setpoints[i];
+		int size = Math.min(setpoints.size(), measurements.length);
+		ensureSize(size);
+		resolveGains(parameters, size);
+		// The gains are kept still while tuning so the relay stays the same size
+		if (_autoTuning) {
+			autoTune(parameters, measurements, setpoints, dtSec);
+			return false;
+		}
+		if (_adaptiveGains)
+			learnGains(parameters, measurements, size);
+		for (int i = 0; i < size; i++) {
 			double measurement = Measurement(measurements[i], i);
-			if (setpoint != null) {
-				double error = setpoint - measurement;
+			if (setpoints.has(i)) {
+				double error = setpoints.get(i) - measurement;
 				double integral = calculateIntegral(error, dtSec, i);
 				double derivative = (error - perror[i]) / dtSec;
-				double output = ((Kp * error) + (Ki * integral) + (Kd * derivative)) / 5;
+				double output = ((Kp * error) + (Ki * integral) + (Kd * derivative)) / OUTPUTSCALE;
 				perror[i] = error;
-				for (ParameterInterface<?> p : parameters) {
+				double[] gains = _actuationGains[i];
+				for (int j = 0; j < parameters.length; j++) {
+					ParameterInterface<?> p = parameters[j];
 					if (p.getWeight() == 0) {
 						p.set(0d);
 					} else {
-						double reduce = 1;
-
-						switch (p.getName()) {
-							case "Hash":
-								reduce = 1;
-								break;
-							case "Sleep":
-								reduce = 3;
-								break;
-							case "Depth":
-								reduce = 0.01;
-								break;
-							case "Buttons":
-								reduce = 0.01;
-								break;
-							case "Breadth":
-								reduce = 0.01;
-								break;
-						}
-
-						p.set(p.getDouble() + (output * (p.getWeight() * reduce)));
+						p.set(p.getDouble() + (output * (p.getWeight() * gains[j])));
 					}
 				}
 			}
@@ -76,6 +282,242 @@ public class ControllerPID extends ControllerHead {
 		return false;
 	}
 
+	/**
+	 * Finds the starting gain of each parameter, only done again if the
+	 * parameters or the number of measurements change
+	 */
+	private void resolveGains(ParameterInterface<?>[] parameters, int size) {
+		if (parameters == _gainParameters && _actuationGains.length == size)
+			return;
+		_initialGains = new double[parameters.length];
+		for (int j = 0; j < parameters.length; j++) {
+			Double configured = _configuredGains.get(parameters[j].getID());
+			if (configured == null)
+				configured = NAMEDGAINS.get(parameters[j].getName());
+			_initialGains[j] = (configured != null) ? configured : rangeGain(parameters[j]);
+		}
+		_actuationGains = new double[size][];
+		for (int i = 0; i < size; i++) {
+			_actuationGains[i] = _initialGains.clone();
+		}
+		_targetLoopGains = new double[size];
+		Arrays.fill(_targetLoopGains, Double.NaN);
+		_sensitivity = new RecursiveLeastSquares[size];
+		try {
+			for (int i = 0; i < size; i++) {
+				_sensitivity[i] = new RecursiveLeastSquares(parameters.length, SENSITIVITYFORGETTING);
+			}
+		} catch (Exception e) {
+			System.out.println("ERROR:" + e);
+			_adaptiveGains = false;
+		}
+		_sensitivityInputs = new double[parameters.length];
+		_lastParameterValues = null;
+		_lastMeasurements = null;
+		_gainParameters = parameters;
+	}
+
+	/**
+	 * @return - The gain from the range of the parameter or 1 if it does not have
+	 *         both bounds, the bounds default to MAX_VALUE and MIN_VALUE
+	 */
+	private static double rangeGain(ParameterInterface<?> parameter) {
+		if (!Parameter.isBounded(parameter))
+			return 1;
+		double range = parameter.getMaxValue() - parameter.getMinValue();
+		return (range > 0 && !Double.isInfinite(range)) ? range / DEFAULTGAINRANGE : 1;
+	}
+
+	/**
+	 * Fits each measurement to the parameter values it was measured with and
+	 * shares the change each unit of output makes evenly between the parameters
+	 * that move it. The values are fitted rather than the
+	 * changes from tick to tick as a system that responds slowly would look
+	 * less sensitive than it is
+	 */
+	private void learnGains(ParameterInterface<?>[] parameters, double[] measurements, int size) {
+		if (_lastMeasurements == null) {
+			_lastMeasurements = new double[size];
+			_lastParameterValues = new double[parameters.length];
+		} else {
+			// The controller can be evaluated more than once for each measurement,
+			// only a new measurement shows the effect of the last moves
+			boolean measured = false;
+			for (int i = 0; i < size; i++) {
+				if (measurements[i] != _lastMeasurements[i])
+					measured = true;
+			}
+			if (!measured)
+				return;
+			// Nothing is learned while the parameters sit still
+			boolean moved = false;
+			for (int j = 0; j < parameters.length; j++) {
+				_sensitivityInputs[j] = parameters[j].getDouble();
+				if (_sensitivityInputs[j] != _lastParameterValues[j])
+					moved = true;
+			}
+			if (moved) {
+				for (int i = 0; i < size; i++) {
+					_sensitivity[i].Update(_sensitivityInputs, measurements[i]);
+					updateGains(i, parameters.length);
+				}
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			_lastMeasurements[i] = measurements[i];
+		}
+		for (int j = 0; j < parameters.length; j++) {
+			_lastParameterValues[j] = parameters[j].getDouble();
+		}
+	}
+
+	private void updateGains(int measurement, int numberOfParameters) {
+		RecursiveLeastSquares sensitivity = _sensitivity[measurement];
+		// Waits until there are enough samples for the fit to mean anything
+		if (sensitivity.GetTotalSamples() < 2 * numberOfParameters)
+			return;
+		// How much the current gains move the measurement for each unit of output
+		double[] gains = _actuationGains[measurement];
+		int sensitive = 0;
+		double loopGain = 0;
+		for (int j = 0; j < numberOfParameters; j++) {
+			double s = Math.abs(sensitivity.GetCoefficient(j));
+			if (s > 0 && !Double.isInfinite(s)) {
+				sensitive++;
+				loopGain += s * gains[j];
+			}
+		}
+		if (sensitive == 0)
+			return;
+		// The first loop gain fitted is kept so the gains follow later changes in
+		// the sensitivity, even with a single parameter
+		if (Double.isNaN(_targetLoopGains[measurement]))
+			_targetLoopGains[measurement] = loopGain;
+		for (int j = 0; j < numberOfParameters; j++) {
+			double s = Math.abs(sensitivity.GetCoefficient(j));
+			if (!(s > 0) || Double.isInfinite(s))
+				continue;
+			// Each parameter is given an even share of the change so the rest still
+			// move the measurement when one is at its limit, the direction is still
+			// given by the weight
+			double learned = _targetLoopGains[measurement] / (sensitive * s);
+			learned = Math.max(_initialGains[j] / MAXGAINCHANGE, Math.min(learned, _initialGains[j] * MAXGAINCHANGE));
+			gains[j] += GAINSMOOTHING * (learned - gains[j]);
+		}
+	}
+
+	/**
+	 * Runs one step of the relay auto tune
+	 */
+	private void autoTune(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+			double dtSec) {
+		int place = _tuneMeasurement;
+		if (place >= perror.length || !setpoints.has(place)) {
+			System.out.println("ERROR: The auto tune measurement does not have a setpoint");
+			_autoTuning = false;
+			return;
+		}
+		if (!_tuneStarted) {
+			_tuneStarted = true;
+			_tuneBase = new double[parameters.length];
+			for (int i = 0; i < parameters.length; i++) {
+				_tuneBase[i] = parameters[i].getDouble();
+			}
+			_tuneTicks = 0;
+			_tuneTime = 0;
+			_tuneMeasurements = null;
+			_relayHigh = true;
+			_lastUpSwitch = -1;
+			_tuneCycles = 0;
+			_tuneMax = Double.NEGATIVE_INFINITY;
+			_tuneMin = Double.POSITIVE_INFINITY;
+			_periodSum = 0;
+			_amplitudeSum = 0;
+		}
+		double measurement = Measurement(measurements[place], place);
+		double error = setpoints.get(place) - measurement;
+		_tuneTicks++;
+		// The time only moves on once a tick however many control updates there
+		// are, the ticks count every evaluation so the time over the ticks is the
+		// time each output is added for
+		if (measurements != _tuneMeasurements) {
+			_tuneMeasurements = measurements;
+			_tuneTime += dtSec;
+		}
+		_tuneMax = Math.max(_tuneMax, measurement);
+		_tuneMin = Math.min(_tuneMin, measurement);
+		if (!_relayHigh && error > _relayHysteresis) {
+			// A full cycle ends each time the relay switches up, the first one is
+			// skipped as it starts from wherever the system was
+			if (_lastUpSwitch >= 0) {
+				_tuneCycles++;
+				if (_tuneCycles > 1) {
+					_periodSum += _tuneTime - _lastUpSwitch;
+					_amplitudeSum += (_tuneMax - _tuneMin) / 2;
+				}
+			}
+			_lastUpSwitch = _tuneTime;
+			_tuneMax = measurement;
+			_tuneMin = measurement;
+			_relayHigh = true;
+		} else if (_relayHigh && error < -_relayHysteresis) {
+			_relayHigh = false;
+		}
+		if (_tuneCycles > TUNECYCLES) {
+			finishAutoTune(parameters, true);
+			return;
+		} else if (_tuneTicks >= _tuneMaxTicks) {
+			finishAutoTune(parameters, false);
+			return;
+		}
+		double relay = _relayHigh ? _relayAmplitude : -_relayAmplitude;
+		double[] gains = _actuationGains[place];
+		for (int i = 0; i < parameters.length; i++) {
+			ParameterInterface<?> p = parameters[i];
+			if (p.getWeight() != 0)
+				p.set(_tuneBase[i] + (relay * (p.getWeight() * gains[i])));
+		}
+	}
+
+	private void finishAutoTune(ParameterInterface<?>[] parameters, boolean oscillated) {
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i].set(_tuneBase[i]);
+		}
+		_tuneMeasurements = null;
+		int cycles = _tuneCycles - 1;
+		double amplitude = (cycles > 0) ? _amplitudeSum / cycles : 0;
+		if (oscillated && amplitude > 0) {
+			// The describing function of the relay gives the gain at the point the
+			// system oscillates
+			double ku = (4 * _relayAmplitude) / (Math.PI * amplitude);
+			double pu = _periodSum / cycles;
+			_ultimateGain = ku;
+			_ultimatePeriod = pu;
+			// The output is added to the parameters each tick so the derivative term
+			// acts as the proportional gain and the proportional term as the
+			// integral. The Ziegler-Nichols PI gains Kc = 0.45Ku and Ti = Pu/1.2 are
+			// mapped onto that form
+			double dt = _tuneTime / _tuneTicks;
+			double kc = 0.45 * ku;
+			double ti = pu / 1.2;
+			Kd = kc * dt * OUTPUTSCALE;
+			Kp = kc * dt / ti * OUTPUTSCALE;
+			Ki = 0;
+		} else {
+			System.out.println("ERROR: The auto tune did not oscillate, the gains were kept");
+		}
+		for (int i = 0; i < perror.length; i++) {
+			perror[i] = 0;
+			integral[i] = 0;
+			integralHistoryPlace[i] = 0;
+			if (useIntegralHistory)
+				Arrays.fill(integralHistory[i], 0);
+		}
+		// The PID gains were tuned on the current loop gain so it is taken again
+		Arrays.fill(_targetLoopGains, Double.NaN);
+		_autoTuning = false;
+	}
+
 	private double Measurement(double measurement, int place) {
 		if (RunningMeasurePlace[place] >= ADVRADGEBUFFER) {
 			RunningMeasurePlace[place] = 0;
@@ -89,7 +531,7 @@ public class ControllerPID extends ControllerHead {
 		return MeasureAdv[place] / totalMeasure[place];
 	}
 
-	private double calculateIntegral(double error, long dt, int place) {
+	private double calculateIntegral(double error, double dt, int place) {
 		integral[place] += (error * dt);
 		if (useIntegralHistory) {
 			if (integralHistoryPlace[place] >= INTEGRALHISTORY) {
@@ -102,6 +544,50 @@ public class ControllerPID extends ControllerHead {
 		return integral[place];
 	}
 
+	@Override
+	public void saveState(ControllerSnapshot snapshot) {
+		snapshot.put(SNAPSHOTGAINS, new double[] { Kp, Ki, Kd });
+		snapshot.put(SNAPSHOTERROR, perror);
+		snapshot.put(SNAPSHOTINTEGRAL, integral);
+		snapshot.put(SNAPSHOTINTEGRALHISTORY, integralHistory);
+		double[] place = new double[integralHistoryPlace.length];
+		for (int i = 0; i < place.length; i++) {
+			place[i] = integralHistoryPlace[i];
+		}
+		snapshot.put(SNAPSHOTINTEGRALHISTORYPLACE, place);
+	}
+
+	@Override
+	public void loadState(ControllerSnapshot snapshot) throws Exception {
+		double[] gains = snapshot.getRow(SNAPSHOTGAINS);
+		if (gains != null) {
+			if (gains.length != 3)
+				throw new Exception("The gains in the snapshot are invalid");
+			Kp = gains[0];
+			Ki = gains[1];
+			Kd = gains[2];
+		}
+		double[] error = snapshot.getRow(SNAPSHOTERROR);
+		double[] savedIntegral = snapshot.getRow(SNAPSHOTINTEGRAL);
+		if (error == null || savedIntegral == null || error.length == 0)
+			return;
+		if (error.length != savedIntegral.length)
+			throw new Exception("The errors and integrals in the snapshot do not match");
+		ensureSize(error.length);
+		System.arraycopy(error, 0, perror, 0, error.length);
+		System.arraycopy(savedIntegral, 0, integral, 0, savedIntegral.length);
+		double[][] history = snapshot.get(SNAPSHOTINTEGRALHISTORY);
+		double[] place = snapshot.getRow(SNAPSHOTINTEGRALHISTORYPLACE);
+		// The history is only used if it was saved with the same length
+		if (useIntegralHistory && history != null && place != null && history.length == error.length
+				&& place.length == error.length && history[0].length == INTEGRALHISTORY) {
+			for (int i = 0; i < history.length; i++) {
+				System.arraycopy(history[i], 0, integralHistory[i], 0, INTEGRALHISTORY);
+				integralHistoryPlace[i] = (int) place[i];
+			}
+		}
+	}
+
 	@Override
 	public double[] get() {
 		// TODO Auto-generated method stub
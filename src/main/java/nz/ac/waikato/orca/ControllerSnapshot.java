@@ -0,0 +1,198 @@
+package nz.ac.waikato.orca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The learned model and the state of a controller so a restarted controller
+ * can carry on from where it stopped instead of training or converging again.
+ *
+ * A snapshot is a set of named sections, each section is a list of rows of
+ * doubles. The file starts with a header followed by each section: the name,
+ * the number of rows and each row as its length and values. A snapshot is
+ * written to a temporary file first and moved over the old one so a crash
+ * while writing never leaves a half written snapshot.
+ */
+public class ControllerSnapshot {
+
+	// Written at the start of the file, "JCLS"
+	public static final int MAGIC = 0x4A434C53;
+	public static final int VERSION = 1;
+
+	/**
+	 * The sections shared by the controllers and Controller
+	 */
+	public static final String INTERCEPT = "intercept";
+	public static final String B = "B";
+	public static final String STATE = "x";
+	public static final String INPUT = "u";
+
+	private final Map<String, double[][]> _sections = new LinkedHashMap<>();
+	private long _createdMillis;
+
+	public ControllerSnapshot() {
+		_createdMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return - When the snapshot was taken in milliseconds since the epoch
+	 */
+	public long getCreatedMillis() {
+		return _createdMillis;
+	}
+
+	/**
+	 * Adds a section, the values are copied
+	 *
+	 * @param name   - The name of the section, replaces any section with the
+	 *               same name
+	 * @param values - The rows of the section
+	 */
+	public void put(String name, double[][] values) {
+		double[][] copy = new double[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			copy[i] = values[i].clone();
+		}
+		_sections.put(name, copy);
+	}
+
+	/**
+	 * Adds a section with one row, the values are copied
+	 */
+	public void put(String name, double[] values) {
+		_sections.put(name, new double[][] { values.clone() });
+	}
+
+	public boolean has(String name) {
+		return _sections.containsKey(name);
+	}
+
+	/**
+	 * @return - A copy of the rows of the section or null if it is not in the
+	 *         snapshot
+	 */
+	public double[][] get(String name) {
+		double[][] values = _sections.get(name);
+		if (values == null)
+			return null;
+		double[][] copy = new double[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			copy[i] = values[i].clone();
+		}
+		return copy;
+	}
+
+	/**
+	 * @return - A copy of the first row of the section or null if it is not in
+	 *         the snapshot
+	 */
+	public double[] getRow(String name) {
+		double[][] values = _sections.get(name);
+		if (values == null || values.length == 0)
+			return null;
+		return values[0].clone();
+	}
+
+	/**
+	 * @return - The section if it is in the snapshot otherwise the default
+	 */
+	static double[][] get(ControllerSnapshot snapshot, String name, double[][] defaultValues) {
+		return (snapshot != null && snapshot.has(name)) ? snapshot.get(name) : defaultValues;
+	}
+
+	/**
+	 * @return - The first row of the section if it is in the snapshot otherwise
+	 *         the default
+	 */
+	static double[] getRow(ControllerSnapshot snapshot, String name, double[] defaultValues) {
+		double[] values = (snapshot != null) ? snapshot.getRow(name) : null;
+		return (values != null) ? values : defaultValues;
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file next to the file and then moves it
+	 * over the file
+	 *
+	 * @param file - The file to write to
+	 * @throws IOException - If the snapshot could not be written
+	 */
+	public void write(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(_createdMillis);
+				out.writeInt(_sections.size());
+				for (Map.Entry<String, double[][]> section : _sections.entrySet()) {
+					out.writeUTF(section.getKey());
+					double[][] values = section.getValue();
+					out.writeInt(values.length);
+					for (double[] row : values) {
+						out.writeInt(row.length);
+						for (double value : row) {
+							out.writeDouble(value);
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * @param file - A file written by write
+	 * @return - The snapshot in the file
+	 * @throws IOException - If the file is not a snapshot or has a version that
+	 *                     is not supported
+	 */
+	public static ControllerSnapshot read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a snapshot");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version);
+			ControllerSnapshot snapshot = new ControllerSnapshot();
+			snapshot._createdMillis = in.readLong();
+			int sections = in.readInt();
+			for (int s = 0; s < sections; s++) {
+				String name = in.readUTF();
+				double[][] values = new double[in.readInt()][];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = new double[in.readInt()];
+					for (int j = 0; j < values[i].length; j++) {
+						values[i][j] = in.readDouble();
+					}
+				}
+				snapshot._sections.put(name, values);
+			}
+			return snapshot;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Implemented by the controllers that keep state between ticks so it can be
+ * saved and used to warm start a controller after a restart.
+ */
+public interface ControllerSnapshotInterface {
+
+	/**
+	 * Adds the state of the controller to the snapshot, called on the thread
+	 * running the controller
+	 *
+	 * @param snapshot - The snapshot to add to
+	 */
+	void saveState(ControllerSnapshot snapshot);
+
+	/**
+	 * Sets the state of the controller from the snapshot, the sections that are
+	 * not in the snapshot are left as they are. Must be called before the
+	 * controller starts
+	 *
+	 * @param snapshot - The snapshot to load from
+	 * @throws Exception - If the snapshot does not match the controller
+	 */
+	void loadState(ControllerSnapshot snapshot) throws Exception;
+}
@@ -0,0 +1,287 @@
+package nz.ac.waikato.orca;
+
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures the costs the JVM pays for the application instead of the OS usage.
+ * The values measured are the time spent in GC pauses during the interval, the
+ * rate memory is allocated at and how full the heap is after the last GC.
+ *
+ * The GC values come from the notifications sent by the garbage collectors so
+ * nothing is polled, the allocation rate comes from the bytes allocated by each
+ * thread.
+ */
+public class MeasureGC implements MeasureInterface, MeasureSetpointInterface, Closeable {
+
+	public static final int NUMBEROFMEASUREMENTVALUES = 3;
+
+	public enum MeasureValues {
+		GCPAUSE, ALLOCATIONRATE, HEAPAFTERGC;
+	}
+
+	private static final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final double BYTESINMEGABYTE = 1024 * 1024;
+	// The collectors that report the time of a whole concurrent cycle and the
+	// action G1 gave them before it had its own collector name
+	private static final Set<String> CONCURRENTCOLLECTORS = new HashSet<String>(Arrays.asList("ZGC Cycles",
+			"ZGC Major Cycles", "ZGC Minor Cycles", "Shenandoah Cycles", "G1 Concurrent GC"));
+	private static final String CONCURRENTACTION = "end of concurrent cycle";
+
+	private long _measureIntervalInMillis;// Holds the interval to measure the system at in milliseconds
+	private Double _setpointGCPause = null;// Holds the desired GC pause in milliseconds per interval
+	private Double _setpointAllocationRate = null;// Holds the desired allocation rate in megabytes per second
+	private Double _setpointHeapAfterGC = null;// Holds the desired heap percentage used after GC
+	private final Setpoints _setpoints;
+
+	private double _currentGCPause = 0;
+	private double _currentAllocationRate = 0;
+	private double _currentHeapAfterGC = 0;
+
+	// Written by the GC notification thread
+	private final AtomicLong _gcPauseMillis = new AtomicLong();
+	private volatile double _heapAfterGC = 0;
+
+	private final Set<String> _heapPools = new HashSet<>();
+	// The most the heap can grow to or -1 if it is not set
+	private final long _heapMax;
+	private final List<NotificationEmitter> _emitters = new ArrayList<>();
+	private final NotificationListener _listener = new NotificationListener() {
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+				gcNotification(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+		}
+	};
+
+	private long _lastAllocatedBytes = -1;
+	private long _lastTimeNanos;
+
+	/**
+	 * @param MeasureInterval       - The interval to measure at
+	 * @param timeFormat            - The unit the interval is given in
+	 * @param gcPauseSetpoint       - The desired GC pause in milliseconds per
+	 *                              interval or null
+	 * @param allocationRateSetpoint - The desired allocation rate in megabytes per
+	 *                              second or null
+	 * @param heapAfterGCSetpoint   - The desired percentage of the heap used after
+	 *                              GC or null
+	 * @throws Exception - If the time format is invalid or the JVM does not
+	 *                   measure the allocated bytes for each thread
+	 */
+	public MeasureGC(long MeasureInterval, TimeUnit timeFormat, Double gcPauseSetpoint,
+			Double allocationRateSetpoint, Double heapAfterGCSetpoint) throws Exception {
+		if (timeFormat == null)
+			throw new Exception("Invalid time format");
+		if (!threadMXBean.isThreadAllocatedMemorySupported())
+			throw new Exception("The JVM does not measure the memory allocated by each thread");
+		_measureIntervalInMillis = timeFormat.toMillis(MeasureInterval);
+		_setpointGCPause = gcPauseSetpoint;
+		_setpointAllocationRate = allocationRateSetpoint;
+		_setpointHeapAfterGC = heapAfterGCSetpoint;
+		_setpoints = new Setpoints(new Double[] { gcPauseSetpoint, allocationRateSetpoint, heapAfterGCSetpoint });
+		if (!threadMXBean.isThreadAllocatedMemoryEnabled())
+			threadMXBean.setThreadAllocatedMemoryEnabled(true);
+		_heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				_heapPools.add(pool.getName());
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				NotificationEmitter emitter = (NotificationEmitter) gc;
+				emitter.addNotificationListener(_listener, null, null);
+				_emitters.add(emitter);
+			}
+		}
+	}
+
+	public MeasureGC(Double gcPauseSetpoint, Double allocationRateSetpoint, Double heapAfterGCSetpoint)
+			throws Exception {
+		this(1, TimeUnit.SECONDS, gcPauseSetpoint, allocationRateSetpoint, heapAfterGCSetpoint);
+	}
+
+	/**
+	 * Stops listening to the garbage collectors
+	 */
+	@Override
+	public void close() {
+		for (NotificationEmitter emitter : _emitters) {
+			try {
+				emitter.removeNotificationListener(_listener);
+			} catch (ListenerNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		_emitters.clear();
+	}
+
+	private void gcNotification(GarbageCollectionNotificationInfo info) {
+		if (isPause(info))
+			_gcPauseMillis.addAndGet(info.getGcInfo().getDuration());
+		GcInfo gcInfo = info.getGcInfo();
+		long used = 0;
+		long committed = 0;
+		for (Map.Entry<String, MemoryUsage> pool : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+			if (!_heapPools.contains(pool.getKey()))
+				continue;
+			used += pool.getValue().getUsed();
+			committed += pool.getValue().getCommitted();
+		}
+		// The heap max does not move with the sizing of the pools, committed is
+		// only used when the heap has no max
+		long max = (_heapMax > 0) ? _heapMax : committed;
+		if (max > 0)
+			_heapAfterGC = 100.0 * used / max;
+	}
+
+	/**
+	 * The concurrent collectors report the time of the whole concurrent cycle,
+	 * only their pauses stop the application. The names are matched exactly as
+	 * ConcurrentMarkSweep is a stop the world collection
+	 */
+	private static boolean isPause(GarbageCollectionNotificationInfo info) {
+		return !CONCURRENTCOLLECTORS.contains(info.getGcName()) && !CONCURRENTACTION.equals(info.getGcAction());
+	}
+
+	private boolean firstPrint = true;
+
+	@Override
+	public void print(long currentRuntimeInMillis, ParameterInterface<?>[] parameters) {
+		if (firstPrint) {
+			firstPrint = false;
+			System.out.printf("GC PAUSE,ALLOCATION RATE,HEAP AFTER GC");
+			if (parameters != null) {
+				for (ParameterInterface<?> p : parameters) {
+					System.out.printf(",");
+					System.out.printf("%s", p.getName());
+				}
+			}
+			if (_setpointGCPause != null)
+				System.out.printf(",set GC Pause");
+			if (_setpointAllocationRate != null)
+				System.out.printf(",set Allocation Rate");
+			if (_setpointHeapAfterGC != null)
+				System.out.printf(",set Heap After GC");
+			System.out.printf(",time%n");
+		}
+		long currentRuntimeInSec = TimeUnit.MILLISECONDS.toSeconds(currentRuntimeInMillis);
+		System.out.printf("%.2f,%.2f,%.2f", _currentGCPause, _currentAllocationRate, _currentHeapAfterGC);
+		if (parameters != null) {
+			for (ParameterInterface<?> p : parameters) {
+				System.out.printf(",");
+				p.printValue();
+			}
+		}
+		if (_setpointGCPause != null)
+			System.out.printf(",%.2f", _setpointGCPause);
+		if (_setpointAllocationRate != null)
+			System.out.printf(",%.2f", _setpointAllocationRate);
+		if (_setpointHeapAfterGC != null)
+			System.out.printf(",%.2f", _setpointHeapAfterGC);
+		System.out.printf(",%d%n", currentRuntimeInSec);
+	}
+
+	@Override
+	public void measure() {
+		_currentGCPause = _gcPauseMillis.getAndSet(0);
+		_currentAllocationRate = measureAllocationRate();
+		_currentHeapAfterGC = _heapAfterGC;
+	}
+
+	/**
+	 * Measures the rate the live threads are allocating memory at
+	 *
+	 * @return - The allocation rate in megabytes per second since the last
+	 *         measure
+	 */
+	private double measureAllocationRate() {
+		long timeNanos = System.nanoTime();
+		long allocatedBytes = 0;
+		for (long bytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+			// -1 is given for threads that have ended
+			if (bytes > 0)
+				allocatedBytes += bytes;
+		}
+		double rate = 0;
+		if (_lastAllocatedBytes >= 0 && timeNanos > _lastTimeNanos) {
+			// Threads that end take their bytes with them so the total can go down
+			long change = Math.max(allocatedBytes - _lastAllocatedBytes, 0);
+			rate = (change / BYTESINMEGABYTE) / ((timeNanos - _lastTimeNanos) / 1e9);
+		}
+		_lastAllocatedBytes = allocatedBytes;
+		_lastTimeNanos = timeNanos;
+		return rate;
+	}
+
+	@Override
+	public long getMeasureIntervalInMillis() {
+		return _measureIntervalInMillis;
+	}
+
+	@Override
+	public long getMeasureIntervalInSec() {
+		return TimeUnit.MILLISECONDS.toSeconds(_measureIntervalInMillis);
+	}
+
+	@Override
+	public double[] getMeasurements() {
+		double[] returnValues = { _currentGCPause, _currentAllocationRate, _currentHeapAfterGC };
+		return returnValues;
+	}
+
+	@Override
+	public int getNumberOfMeasurements() {
+		return NUMBEROFMEASUREMENTVALUES;
+	}
+
+	@Override
+	public void setSetpoint(int place, Double setpoint) {
+		if (place == MeasureValues.GCPAUSE.ordinal())
+			_setpointGCPause = setpoint;
+		else if (place == MeasureValues.ALLOCATIONRATE.ordinal())
+			_setpointAllocationRate = setpoint;
+		else if (place == MeasureValues.HEAPAFTERGC.ordinal())
+			_setpointHeapAfterGC = setpoint;
+		else
+			return;
+		_setpoints.set(place, setpoint);
+	}
+
+	/**
+	 * The setpoints are not shaped or encoded for the LQR model as the model is
+	 * for CPU and memory, the raw setpoints are given
+	 */
+	@Override
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
+		return getRawSetpoints();
+	}
+
+	@Override
+	public Setpoints getRawSetpoints() {
+		return _setpoints;
+	}
+}
@@ -31,10 +31,26 @@ interface MeasureInterface {
 	public double[] getMeasurements();
 
 	/**
+	 * Returns the number of values measured, the length of getMeasurements and
+	 * the size of the setpoints
+	 * 
+	 * @return - The number of values measured
+	 */
+	public int getNumberOfMeasurements();
+
+	/**
+	 * Returns the setpoints given to the controller. The setpoints may be kept by
+	 * the measure and filled again on the next call so they should not be kept
 	 * 
 	 * @return
 	 */
-	public Double[] getSetpoints(int numberOfControlUpdates, long timeInSeconds);
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds);
 
-	public Double[] getRawSetpoints();
+	/**
+	 * Returns the setpoints as they were given by the user. The setpoints may be
+	 * kept by the measure so they should not be kept
+	 * 
+	 * @return
+	 */
+	public Setpoints getRawSetpoints();
 }
\ No newline at end of file
@@ -45,11 +45,16 @@ public class MeasureNull implements MeasureInterface {
 	}
 
 	@Override
-	public Double[] getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
+	public int getNumberOfMeasurements() {
+		return 0;
+	}
+
+	@Override
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
 		return null;
 	}
 
-	public Double[] getRawSetpoints() {
+	public Setpoints getRawSetpoints() {
 		return null;
 	}
 
@@ -0,0 +1,352 @@
+package nz.ac.waikato.orca;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.management.OperatingSystemMXBean;
+
+/**
+ * Measures the CPU and memory of this process by reading procfs and the cgroup
+ * v2 files directly. The files are opened once and read again into the same
+ * buffer each measure. The CPU is worked out from the change in CPU time over
+ * the change in nanoTime so it is accurate for any interval and the memory is
+ * for this process or its container instead of the whole system.
+ *
+ * Only works on Linux, the cgroup files are used when the cgroup has a CPU
+ * quota or memory limit otherwise /proc/self/stat and /proc/self/statm are
+ * used. A cgroup without a limit is often a systemd scope or the root shared
+ * with other processes so its usage is not the usage of this process.
+ */
+public class MeasureProcfs extends MeasureSystem implements Closeable {
+
+	private static final String PROCSELF = "/proc/self";
+	private static final String CGROUPROOT = "/sys/fs/cgroup";
+	// The values used by almost all Linux systems
+	private static final long DEFAULTCLOCKTICKS = 100;
+	private static final long DEFAULTPAGESIZE = 4096;
+	// Field numbers of utime and rss counted after the command name in stat
+	private static final int UTIMEFIELD = 11;
+	private static final int STIMEFIELD = 12;
+
+	private final ByteBuffer _buffer = ByteBuffer.allocate(4096);
+	private final byte[] _bytes = _buffer.array();
+
+	private FileChannel _stat;
+	private FileChannel _statm;
+	private FileChannel _cgroupCPU;
+	private FileChannel _cgroupMemory;
+	// The memory limit of the cgroup or -1 if there is none
+	private long _cgroupMemoryLimit = -1;
+
+	// The procfs directory of this process and the root of the cgroup v2 tree
+	private final File _proc;
+	private final File _cgroupRoot;
+	private final long _nanosPerClockTick;
+	private final long _pageSize;
+	private final long _totalPhysicalMemory;
+
+	private long _lastCPUNanos = -1;
+	private long _lastTimeNanos;
+
+	/**
+	 * @param MeasureInterval - The interval to measure at
+	 * @param timeFormat      - The unit the interval is given in
+	 * @param cpuSetpoint     - The desired CPU or null
+	 * @param memorySetpoint  - The desired memory or null
+	 * @throws Exception - If the time format is invalid or procfs can not be read
+	 */
+	public MeasureProcfs(long MeasureInterval, TimeUnit timeFormat, Double cpuSetpoint, Double memorySetpoint)
+			throws Exception {
+		super(MeasureInterval, timeFormat, cpuSetpoint, memorySetpoint);
+		_nanosPerClockTick = TimeUnit.SECONDS.toNanos(1) / DEFAULTCLOCKTICKS;
+		_pageSize = DEFAULTPAGESIZE;
+		_totalPhysicalMemory = getTotalPhysicalMemory();
+		_proc = new File(PROCSELF);
+		_cgroupRoot = new File(CGROUPROOT);
+		open();
+	}
+
+	/**
+	 * @param cpuSetpoint    - The desired CPU or null
+	 * @param memorySetpoint - The desired memory or null
+	 * @throws Exception - If procfs can not be read
+	 */
+	public MeasureProcfs(Double cpuSetpoint, Double memorySetpoint) throws Exception {
+		this(cpuSetpoint, memorySetpoint, DEFAULTCLOCKTICKS, DEFAULTPAGESIZE);
+	}
+
+	/**
+	 * @param cpuSetpoint    - The desired CPU or null
+	 * @param memorySetpoint - The desired memory or null
+	 * @param clockTicks     - The clock ticks per second used by procfs, from
+	 *                       getconf CLK_TCK
+	 * @param pageSize       - The size of a page in bytes, from getconf PAGESIZE
+	 * @throws Exception - If procfs can not be read or the values are invalid
+	 */
+	public MeasureProcfs(Double cpuSetpoint, Double memorySetpoint, long clockTicks, long pageSize)
+			throws Exception {
+		this(cpuSetpoint, memorySetpoint, clockTicks, pageSize, new File(PROCSELF), new File(CGROUPROOT));
+	}
+
+	/**
+	 * Reads the files from the given directories instead of the ones of this
+	 * process, used to test the parsing
+	 */
+	MeasureProcfs(Double cpuSetpoint, Double memorySetpoint, long clockTicks, long pageSize, File proc,
+			File cgroupRoot) throws Exception {
+		super(cpuSetpoint, memorySetpoint);
+		if (clockTicks <= 0 || pageSize <= 0)
+			throw new Exception("The clock ticks and page size must be greater than 0");
+		_nanosPerClockTick = TimeUnit.SECONDS.toNanos(1) / clockTicks;
+		_pageSize = pageSize;
+		_totalPhysicalMemory = getTotalPhysicalMemory();
+		_proc = proc;
+		_cgroupRoot = cgroupRoot;
+		open();
+	}
+
+	private static long getTotalPhysicalMemory() {
+		return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize();
+	}
+
+	/**
+	 * Opens all of the files that will be read, the cgroup files are only used if
+	 * the process is in a cgroup v2
+	 */
+	private void open() throws Exception {
+		try {
+			_stat = new RandomAccessFile(new File(_proc, "stat"), "r").getChannel();
+			_statm = new RandomAccessFile(new File(_proc, "statm"), "r").getChannel();
+		} catch (IOException e) {
+			close();
+			throw new Exception("Unable to open procfs, this measure only works on Linux", e);
+		}
+		try {
+			openCgroup();
+		} catch (IOException | NumberFormatException e) {
+			close();
+			throw new Exception("Unable to read the cgroup of this process", e);
+		}
+	}
+
+	/**
+	 * Opens the cgroup files that have a limit set
+	 */
+	private void openCgroup() throws IOException {
+		File cgroup = findCgroup();
+		if (cgroup == null)
+			return;
+		File cpuStat = new File(cgroup, "cpu.stat");
+		File cpuMax = new File(cgroup, "cpu.max");
+		File memoryCurrent = new File(cgroup, "memory.current");
+		File memoryMax = new File(cgroup, "memory.max");
+		if (cpuStat.canRead() && cpuMax.canRead()) {
+			// The quota is the first field, max when there is none
+			String quota = readFirstField(cpuMax);
+			if (!quota.equals("max"))
+				_cgroupCPU = new RandomAccessFile(cpuStat, "r").getChannel();
+		}
+		if (memoryCurrent.canRead() && memoryMax.canRead()) {
+			String limit = readFirstField(memoryMax);
+			// Without a limit the percentage of the cgroup can not be worked out
+			if (!limit.equals("max")) {
+				_cgroupMemoryLimit = Long.parseLong(limit);
+				_cgroupMemory = new RandomAccessFile(memoryCurrent, "r").getChannel();
+			}
+		}
+	}
+
+	private static String readFirstField(File file) throws IOException {
+		String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+		int end = contents.indexOf(' ');
+		return (end >= 0) ? contents.substring(0, end) : contents;
+	}
+
+	/**
+	 * @return - The directory of the cgroup v2 this process is in or null if it
+	 *         is not in one
+	 */
+	private File findCgroup() {
+		try {
+			List<String> lines = Files.readAllLines(new File(_proc, "cgroup").toPath(), StandardCharsets.US_ASCII);
+			for (String line : lines) {
+				// cgroup v2 has the hierarchy ID 0 and no controllers
+				if (line.startsWith("0::")) {
+					File cgroup = new File(_cgroupRoot, line.substring(3));
+					if (cgroup.isDirectory())
+						return cgroup;
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		_stat = closeChannel(_stat);
+		_statm = closeChannel(_statm);
+		_cgroupCPU = closeChannel(_cgroupCPU);
+		_cgroupMemory = closeChannel(_cgroupMemory);
+	}
+
+	private static FileChannel closeChannel(FileChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return - True if the cgroup CPU is used instead of procfs
+	 */
+	public boolean isCgroupCPU() {
+		return _cgroupCPU != null;
+	}
+
+	/**
+	 * @return - True if the cgroup memory is used instead of procfs
+	 */
+	public boolean isCgroupMemory() {
+		return _cgroupMemory != null;
+	}
+
+	/**
+	 * Measures the CPU used since the last measure
+	 *
+	 * @return - The percentage of a core used, the same as MeasureSystem
+	 */
+	@Override
+	protected double measureCPU() {
+		long timeNanos = System.nanoTime();
+		long cpuNanos;
+		try {
+			cpuNanos = readCPUNanos();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+		double cpu = 0;
+		if (_lastCPUNanos >= 0 && timeNanos > _lastTimeNanos) {
+			cpu = 100.0 * (cpuNanos - _lastCPUNanos) / (timeNanos - _lastTimeNanos);
+		}
+		_lastCPUNanos = cpuNanos;
+		_lastTimeNanos = timeNanos;
+		return cpu;
+	}
+
+	/**
+	 * Measures the memory used by the process or its cgroup
+	 *
+	 * @return - The percentage of the cgroup limit used or the percentage of the
+	 *         physical memory used by the process if there is no limit
+	 */
+	@Override
+	protected double measureMemory() {
+		try {
+			if (_cgroupMemory != null) {
+				int length = read(_cgroupMemory);
+				return 100.0 * parseLong(0, length) / _cgroupMemoryLimit;
+			}
+			int length = read(_statm);
+			// The resident pages are the second field
+			int start = skipFields(0, length, 1);
+			return 100.0 * parseLong(start, length) * _pageSize / _totalPhysicalMemory;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	private long readCPUNanos() throws IOException {
+		if (_cgroupCPU != null) {
+			int length = read(_cgroupCPU);
+			int start = find(0, length, "usage_usec ");
+			if (start >= 0)
+				return TimeUnit.MICROSECONDS.toNanos(parseLong(start, length));
+		}
+		int length = read(_stat);
+		// The command name can hold spaces so count the fields from the last )
+		int start = length - 1;
+		while (start > 0 && _bytes[start] != ')') {
+			start--;
+		}
+		start = skipFields(start + 2, length, UTIMEFIELD);
+		long utime = parseLong(start, length);
+		start = skipFields(start, length, STIMEFIELD - UTIMEFIELD);
+		long stime = parseLong(start, length);
+		return (utime + stime) * _nanosPerClockTick;
+	}
+
+	/**
+	 * Reads the whole file into the buffer from the start
+	 *
+	 * @return - The number of bytes read
+	 */
+	private int read(FileChannel channel) throws IOException {
+		_buffer.clear();
+		int total = 0;
+		int read;
+		while ((read = channel.read(_buffer, total)) > 0) {
+			total += read;
+			if (!_buffer.hasRemaining())
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * @return - The place after the given number of space separated fields
+	 */
+	private int skipFields(int place, int length, int fields) {
+		for (int i = 0; i < fields; i++) {
+			while (place < length && _bytes[place] != ' ') {
+				place++;
+			}
+			place++;
+		}
+		return place;
+	}
+
+	/**
+	 * @return - The place just after the text or -1 if it is not found
+	 */
+	private int find(int place, int length, String text) {
+		int end = length - text.length();
+		for (int i = place; i <= end; i++) {
+			boolean found = true;
+			for (int j = 0; j < text.length(); j++) {
+				if (_bytes[i + j] != text.charAt(j)) {
+					found = false;
+					break;
+				}
+			}
+			if (found)
+				return i + text.length();
+		}
+		return -1;
+	}
+
+	private long parseLong(int place, int length) {
+		long value = 0;
+		while (place < length && _bytes[place] >= '0' && _bytes[place] <= '9') {
+			value = value * 10 + (_bytes[place] - '0');
+			place++;
+		}
+		return value;
+	}
+}
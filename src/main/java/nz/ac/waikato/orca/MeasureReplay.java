@@ -0,0 +1,250 @@
+package nz.ac.waikato.orca;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays back a run recorded by RunRecorder, each measure moves on to the next
+ * recorded tick. Used to run a controller against a recorded production trace
+ * offline.
+ *
+ * The setpoints given are the recorded setpoints, they are encoded with the
+ * model for the controllers that use the model. Once the last tick has been
+ * played the last tick is kept unless the replay is set to loop.
+ */
+public class MeasureReplay implements MeasureInterface, ModelAwareInterface, Closeable {
+
+	private static final int MAXHEADERBYTES = 64 * 1024;
+	private static final long CHUNKSIZE = 64L * 1024 * 1024;
+
+	private final FileChannel _channel;
+	private final RunRecorder.Header _header;
+	private final long _measureIntervalInMillis;
+
+	private MappedByteBuffer _chunk;
+	private long _chunkStart;
+	private long _nextRow = 0;
+	private boolean _loop = false;
+
+	private final double[] _measurements;
+	private final Setpoints _setpoints;
+	private final Setpoints _encodedSetpoints;
+	// Encodes the setpoints given to the controller
+	private ModelLQR _model = new ModelLQR();
+	private final double[] _parameters;
+	private long _recordedTime;
+
+	/**
+	 * Plays back the recording at the interval it was recorded at
+	 *
+	 * @param file - The recording made by RunRecorder
+	 * @throws Exception - If the file is not a recording or has less than two
+	 *                   ticks
+	 */
+	public MeasureReplay(File file) throws Exception {
+		this(file, -1, null);
+	}
+
+	/**
+	 * @param file            - The recording made by RunRecorder
+	 * @param MeasureInterval - The interval to play the ticks back at or -1 to use
+	 *                        the interval they were recorded at
+	 * @param timeFormat      - The unit the interval is given in, can be null if
+	 *                        -1 is used
+	 * @throws Exception - If the file is not a recording
+	 */
+	public MeasureReplay(File file, long MeasureInterval, TimeUnit timeFormat) throws Exception {
+		if (MeasureInterval >= 0 && timeFormat == null)
+			throw new Exception("Invalid time format");
+		_channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer headerBuffer = ByteBuffer.allocate((int) Math.min(_channel.size(), MAXHEADERBYTES));
+			_channel.read(headerBuffer, 0);
+			headerBuffer.flip();
+			_header = new RunRecorder.Header(headerBuffer);
+			if (_header.rows == 0)
+				throw new Exception("The recording has no ticks");
+			_measurements = new double[_header.numberOfMeasurements];
+			_setpoints = new Setpoints(_header.numberOfSetpoints);
+			_encodedSetpoints = new Setpoints(_header.numberOfSetpoints);
+			_parameters = new double[_header.parameterIDs.length];
+			if (MeasureInterval >= 0) {
+				_measureIntervalInMillis = timeFormat.toMillis(MeasureInterval);
+			} else {
+				if (_header.rows < 2)
+					throw new Exception("An interval must be given for a recording with one tick");
+				_measureIntervalInMillis = (long) (readDouble(1, 0) - readDouble(0, 0));
+			}
+		} catch (Exception e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param loop - True to start again from the first tick once the last tick
+	 *             has been played
+	 */
+	public void setLoop(boolean loop) {
+		_loop = loop;
+	}
+
+	/**
+	 * @return - True if every tick has been played and the replay does not loop
+	 */
+	public boolean isFinished() {
+		return !_loop && _nextRow >= _header.rows;
+	}
+
+	public long getNumberOfTicks() {
+		return _header.rows;
+	}
+
+	/**
+	 * @return - The time the current tick was recorded at in milliseconds
+	 */
+	public long getRecordedTime() {
+		return _recordedTime;
+	}
+
+	/**
+	 * @param id - The ID the parameter had when it was recorded
+	 * @return - The value the parameter had at the current tick or NaN if it was
+	 *         not recorded
+	 */
+	public double getRecordedParameter(int id) {
+		for (int i = 0; i < _header.parameterIDs.length; i++) {
+			if (_header.parameterIDs[i] == id)
+				return _parameters[i];
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @return - The names of the parameters in the recording in the order of the
+	 *         IDs
+	 */
+	public String[] getRecordedParameterNames() {
+		return _header.parameterNames.clone();
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	@Override
+	public void print(long currentRuntime, ParameterInterface<?>[] parameters) {
+		long currentRuntimeInSec = TimeUnit.MILLISECONDS.toSeconds(currentRuntime);
+		for (int i = 0; i < _measurements.length; i++) {
+			if (i > 0)
+				System.out.printf(",");
+			System.out.printf("%.2f", _measurements[i]);
+		}
+		if (parameters != null) {
+			for (ParameterInterface<?> p : parameters) {
+				System.out.printf(",");
+				p.printValue();
+			}
+		}
+		System.out.printf(",%d%n", currentRuntimeInSec);
+	}
+
+	@Override
+	public void measure() {
+		if (_nextRow >= _header.rows) {
+			if (!_loop)
+				return;
+			_nextRow = 0;
+		}
+		try {
+			int column = 0;
+			_recordedTime = (long) readDouble(_nextRow, column++);
+			for (int i = 0; i < _measurements.length; i++) {
+				_measurements[i] = readDouble(_nextRow, column++);
+			}
+			for (int i = 0; i < _setpoints.size(); i++) {
+				double setpoint = readDouble(_nextRow, column++);
+				if (Double.isNaN(setpoint))
+					_setpoints.clear(i);
+				else
+					_setpoints.set(i, setpoint);
+			}
+			for (int i = 0; i < _parameters.length; i++) {
+				_parameters[i] = readDouble(_nextRow, column++);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		_nextRow++;
+	}
+
+	private double readDouble(long row, int column) throws IOException {
+		long place = _header.dataStart + row * _header.rowBytes + column * 8L;
+		if (_chunk == null || place < _chunkStart || place + 8 > _chunkStart + _chunk.capacity()) {
+			// Map from the start of the row so a whole row is always in one chunk
+			long rowStart = _header.dataStart + row * _header.rowBytes;
+			long size = Math.min(Math.max(CHUNKSIZE, _header.rowBytes), _channel.size() - rowStart);
+			_chunk = _channel.map(FileChannel.MapMode.READ_ONLY, rowStart, size);
+			_chunkStart = rowStart;
+		}
+		return _chunk.getDouble((int) (place - _chunkStart));
+	}
+
+	@Override
+	public long getMeasureIntervalInMillis() {
+		return _measureIntervalInMillis;
+	}
+
+	@Override
+	public long getMeasureIntervalInSec() {
+		return TimeUnit.MILLISECONDS.toSeconds(_measureIntervalInMillis);
+	}
+
+	@Override
+	public double[] getMeasurements() {
+		return _measurements.clone();
+	}
+
+	@Override
+	public int getNumberOfMeasurements() {
+		return _measurements.length;
+	}
+
+	@Override
+	public void setModel(ModelLQR model) {
+		_model = model;
+	}
+
+	@Override
+	public ModelLQR getModel() {
+		return _model;
+	}
+
+	/**
+	 * The recorded setpoints encoded the same as the measurements so they can be
+	 * used by the model controllers
+	 */
+	@Override
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
+		for (int i = 0; i < _setpoints.size(); i++) {
+			if (_setpoints.has(i))
+				_encodedSetpoints.set(i, _model.encodeMeasurement(_setpoints.get(i), i));
+			else
+				_encodedSetpoints.clear(i);
+		}
+		return _encodedSetpoints;
+	}
+
+	@Override
+	public Setpoints getRawSetpoints() {
+		return _setpoints;
+	}
+}
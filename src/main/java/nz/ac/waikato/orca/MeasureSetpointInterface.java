@@ -0,0 +1,17 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Implemented by the measures that let the setpoints be changed while the
+ * controller runs.
+ */
+public interface MeasureSetpointInterface {
+
+	/**
+	 * Changes the setpoint of a measurement, called by Controller on the thread
+	 * running the ticks
+	 *
+	 * @param place    - The measurement
+	 * @param setpoint - The desired value or null to clear it
+	 */
+	void setSetpoint(int place, Double setpoint);
+}
@@ -0,0 +1,296 @@
+package nz.ac.waikato.orca;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * A simulated plant that measures the output of a state space model driven by
+ * the current parameter values instead of the real system. Used with
+ * Controller.simulate and a VirtualControlClock to test controllers faster than
+ * real time.
+ *
+ * The plant is either the ModelLQR model, where the parameters are encoded,
+ * stepped through B and decoded back into CPU and memory, or a state space
+ * model given by the user that is driven by the raw parameter values. Noise and
+ * a delay of a number of ticks can be added to the output.
+ */
+public class MeasureSimulation implements MeasureInterface, ModelAwareInterface, MeasureSetpointInterface {
+
+	private final long _measureIntervalInMillis;
+	private final ParameterInterface<?>[] _parameters;
+	// True when the ModelLQR encoding is used
+	private final boolean _encode;
+	// The plant keeps the intercepts it was made with so fitting the controller
+	// model does not change the plant
+	private final ModelLQR _plantModel = new ModelLQR();
+	// Encodes the setpoints given to the controller
+	private ModelLQR _model = new ModelLQR();
+	private final Setpoints _setpoints;
+	private final Setpoints _encodedSetpoints;
+
+	private final DMatrixRMaj _A;
+	private final DMatrixRMaj _B;
+	private final DMatrixRMaj _C;
+	private final DMatrixRMaj _D;
+	private DMatrixRMaj _x;
+	private DMatrixRMaj _xNext;
+	private final DMatrixRMaj _u;
+	private final DMatrixRMaj _y;
+
+	private double _noise = 0;
+	private Random _random = new Random(0);
+	// Holds the outputs waiting to be measured when there is a delay
+	private double[][] _delayLine;
+	private int _delayPlace = 0;
+	private int _ticks = 0;
+
+	private final double[] _measurements;
+
+	/**
+	 * Simulates the ModelLQR model, the measurements are CPU and memory
+	 *
+	 * @param B               - The B matrix of the model, a row for CPU and memory
+	 *                        and a column for each parameter
+	 * @param parameters      - The parameters that drive the plant, the same ones
+	 *                        given to the controller
+	 * @param MeasureInterval - The interval to measure at
+	 * @param timeFormat      - The unit the interval is given in
+	 * @param cpuSetpoint     - The desired CPU or null
+	 * @param memorySetpoint  - The desired memory or null
+	 * @throws Exception - If the matrix does not match the parameters
+	 */
+	public MeasureSimulation(double[][] B, ParameterInterface<?>[] parameters, long MeasureInterval,
+			TimeUnit timeFormat, Double cpuSetpoint, Double memorySetpoint) throws Exception {
+		this(new double[B.length][B.length], B, parameters, MeasureInterval, timeFormat, cpuSetpoint,
+				memorySetpoint);
+	}
+
+	/**
+	 * Simulates the ModelLQR model with its own dynamics, x = Ax + Bu on the
+	 * encoded parameters, the measurements are CPU and memory
+	 *
+	 * @param A               - The A matrix of the model, a row and column for CPU
+	 *                        and memory
+	 * @param B               - The B matrix of the model, a row for CPU and memory
+	 *                        and a column for each parameter
+	 * @param parameters      - The parameters that drive the plant, the same ones
+	 *                        given to the controller
+	 * @param MeasureInterval - The interval to measure at
+	 * @param timeFormat      - The unit the interval is given in
+	 * @param cpuSetpoint     - The desired CPU or null
+	 * @param memorySetpoint  - The desired memory or null
+	 * @throws Exception - If the matrices do not match the parameters
+	 */
+	public MeasureSimulation(double[][] A, double[][] B, ParameterInterface<?>[] parameters, long MeasureInterval,
+			TimeUnit timeFormat, Double cpuSetpoint, Double memorySetpoint) throws Exception {
+		this(A, B, identity(B.length), new double[B.length][B[0].length], new double[B.length], parameters,
+				MeasureInterval, timeFormat, new Double[] { cpuSetpoint, memorySetpoint }, true);
+		if (B.length != 2)
+			throw new Exception("The ModelLQR model has a row for CPU and a row for memory");
+	}
+
+	/**
+	 * Simulates a state space model driven by the raw parameter values, x = Ax +
+	 * Bu and y = Cx + Du
+	 *
+	 * @param A               - The A matrix
+	 * @param B               - The B matrix, a column for each parameter
+	 * @param C               - The C matrix, a row for each measurement
+	 * @param D               - The D matrix
+	 * @param x               - The starting state
+	 * @param parameters      - The parameters that drive the plant, the same ones
+	 *                        given to the controller
+	 * @param MeasureInterval - The interval to measure at
+	 * @param timeFormat      - The unit the interval is given in
+	 * @param setpoints       - The desired value for each measurement or null
+	 * @throws Exception - If the matrices do not match
+	 */
+	public MeasureSimulation(double[][] A, double[][] B, double[][] C, double[][] D, double[] x,
+			ParameterInterface<?>[] parameters, long MeasureInterval, TimeUnit timeFormat, Double[] setpoints)
+			throws Exception {
+		this(A, B, C, D, x, parameters, MeasureInterval, timeFormat, setpoints, false);
+	}
+
+	private MeasureSimulation(double[][] A, double[][] B, double[][] C, double[][] D, double[] x,
+			ParameterInterface<?>[] parameters, long MeasureInterval, TimeUnit timeFormat, Double[] setpoints,
+			boolean encode) throws Exception {
+		if (timeFormat == null)
+			throw new Exception("Invalid time format");
+		if (parameters == null || B[0].length != parameters.length || D[0].length != parameters.length)
+			throw new Exception("B and D must have a column for each parameter");
+		if (A.length != x.length || B.length != x.length || C[0].length != x.length || C.length != D.length)
+			throw new Exception("The size of the matrices do not match");
+		if (setpoints != null && setpoints.length != C.length)
+			throw new Exception("There must be a setpoint for each measurement");
+		_measureIntervalInMillis = timeFormat.toMillis(MeasureInterval);
+		_parameters = parameters;
+		_encode = encode;
+		_setpoints = (setpoints != null) ? new Setpoints(setpoints) : new Setpoints(C.length);
+		_encodedSetpoints = new Setpoints(C.length);
+		_A = new DMatrixRMaj(A);
+		_B = new DMatrixRMaj(B);
+		_C = new DMatrixRMaj(C);
+		_D = new DMatrixRMaj(D);
+		_x = new DMatrixRMaj(x.length, 1);
+		_xNext = new DMatrixRMaj(x.length, 1);
+		for (int i = 0; i < x.length; i++) {
+			_x.set(i, 0, x[i]);
+		}
+		_u = new DMatrixRMaj(parameters.length, 1);
+		_y = new DMatrixRMaj(C.length, 1);
+		_measurements = new double[C.length];
+		setDelay(0);
+	}
+
+	private static double[][] identity(int size) {
+		double[][] identity = new double[size][size];
+		for (int i = 0; i < size; i++) {
+			identity[i][i] = 1;
+		}
+		return identity;
+	}
+
+	/**
+	 * Adds gaussian noise to the output, for the ModelLQR model the noise is added
+	 * before decoding so it is relative to the measurement
+	 *
+	 * @param standardDeviation - The standard deviation of the noise, 0 for none
+	 * @param seed              - The seed for the noise
+	 */
+	public void setNoise(double standardDeviation, long seed) {
+		_noise = Math.max(standardDeviation, 0);
+		_random = new Random(seed);
+	}
+
+	/**
+	 * Delays the output by a number of ticks
+	 *
+	 * @param ticks - The number of ticks to delay by, 0 for no delay
+	 */
+	public void setDelay(int ticks) {
+		_delayLine = new double[Math.max(ticks, 0) + 1][_measurements.length];
+		_delayPlace = 0;
+		_ticks = 0;
+	}
+
+	@Override
+	public void print(long currentRuntime, ParameterInterface<?>[] parameters) {
+		long currentRuntimeInSec = TimeUnit.MILLISECONDS.toSeconds(currentRuntime);
+		for (int i = 0; i < _measurements.length; i++) {
+			if (i > 0)
+				System.out.printf(",");
+			System.out.printf("%.2f", _measurements[i]);
+		}
+		if (parameters != null) {
+			for (ParameterInterface<?> p : parameters) {
+				System.out.printf(",");
+				p.printValue();
+			}
+		}
+		System.out.printf(",%d%n", currentRuntimeInSec);
+	}
+
+	@Override
+	public void measure() {
+		for (int i = 0; i < _parameters.length; i++) {
+			double value = _parameters[i].getDouble();
+			_u.set(i, 0, _encode ? ModelLQR.encodeParameter(value) : value);
+		}
+		// y = Cx + Du then x = Ax + Bu
+		CommonOps_DDRM.mult(_C, _x, _y);
+		CommonOps_DDRM.multAdd(_D, _u, _y);
+		CommonOps_DDRM.mult(_A, _x, _xNext);
+		CommonOps_DDRM.multAdd(_B, _u, _xNext);
+		DMatrixRMaj tmp = _x;
+		_x = _xNext;
+		_xNext = tmp;
+
+		double[] output = _delayLine[_delayPlace];
+		for (int i = 0; i < output.length; i++) {
+			double value = _y.get(i, 0);
+			if (_noise > 0)
+				value += _random.nextGaussian() * _noise;
+			output[i] = value;
+		}
+		_delayPlace = (_delayPlace + 1) % _delayLine.length;
+		_ticks++;
+		// Nothing has come out of the delay yet
+		if (_ticks < _delayLine.length)
+			return;
+		double[] delayed = _delayLine[_delayPlace];
+		for (int i = 0; i < _measurements.length; i++) {
+			_measurements[i] = _encode ? _plantModel.decodeMeasurement(delayed[i], i) : delayed[i];
+		}
+	}
+
+	/**
+	 * Changes the setpoints while the simulation runs, used to test step changes
+	 *
+	 * @param setpoints - The desired value for each measurement or null
+	 */
+	public void setSetpoints(Double[] setpoints) {
+		for (int i = 0; i < _setpoints.size(); i++) {
+			_setpoints.set(i, setpoints[i]);
+		}
+	}
+
+	@Override
+	public void setSetpoint(int place, Double setpoint) {
+		_setpoints.set(place, setpoint);
+	}
+
+	@Override
+	public long getMeasureIntervalInMillis() {
+		return _measureIntervalInMillis;
+	}
+
+	@Override
+	public long getMeasureIntervalInSec() {
+		return TimeUnit.MILLISECONDS.toSeconds(_measureIntervalInMillis);
+	}
+
+	@Override
+	public double[] getMeasurements() {
+		return _measurements.clone();
+	}
+
+	@Override
+	public void setModel(ModelLQR model) {
+		_model = model;
+	}
+
+	@Override
+	public ModelLQR getModel() {
+		return _model;
+	}
+
+	@Override
+	public int getNumberOfMeasurements() {
+		return _measurements.length;
+	}
+
+	/**
+	 * For the ModelLQR model the setpoints are encoded the same as the
+	 * measurements so they can be used by ControllerLQR
+	 */
+	@Override
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
+		if (!_encode)
+			return getRawSetpoints();
+		for (int i = 0; i < _setpoints.size(); i++) {
+			if (_setpoints.has(i))
+				_encodedSetpoints.set(i, _model.encodeMeasurement(_setpoints.get(i), i));
+			else
+				_encodedSetpoints.clear(i);
+		}
+		return _encodedSetpoints;
+	}
+
+	@Override
+	public Setpoints getRawSetpoints() {
+		return _setpoints;
+	}
+}
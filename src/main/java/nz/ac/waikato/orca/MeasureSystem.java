@@ -6,7 +6,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.sun.management.OperatingSystemMXBean;
 
-public class MeasureSystem implements MeasureInterface {
+public class MeasureSystem implements MeasureInterface, ModelAwareInterface, MeasureSetpointInterface {
 
 	private static OperatingSystemMXBean operatingSystemMXBean = (OperatingSystemMXBean) ManagementFactory
 			.getOperatingSystemMXBean();
@@ -20,6 +20,8 @@ public class MeasureSystem implements MeasureInterface {
 	private double _memoryChange;
 	private long _measureIntervalInMillis;// Holds the interval to measure the system at in milliseconds
 	private final double _percentageForCores;
+	// Encodes the setpoints given to the controller
+	private ModelLQR _model = new ModelLQR();
 
 	/**
 	 * 
@@ -129,7 +131,7 @@ public class MeasureSystem implements MeasureInterface {
 	 * 
 	 * @return - The percentage of CPU used by the JVM
 	 */
-	private double measureCPU() {
+	protected double measureCPU() {
 		return operatingSystemMXBean.getProcessCpuLoad() * (_percentageForCores);
 	}
 
@@ -138,7 +140,7 @@ public class MeasureSystem implements MeasureInterface {
 	 * 
 	 * @return - The percentage of memory used by the JVM
 	 */
-	private double measureMemory() {
+	protected double measureMemory() {
 		long totalAvalableMemory = operatingSystemMXBean.getTotalPhysicalMemorySize()
 				+ operatingSystemMXBean.getTotalSwapSpaceSize();
 		long totalFreeMemory = operatingSystemMXBean.getFreePhysicalMemorySize()
@@ -175,13 +177,48 @@ public class MeasureSystem implements MeasureInterface {
 	double[] advradge = { 0, 0 };
 	double[] numValues = { 0, 0 };
 
-	public Double[] getRawSetpoints() {
-		Double[] returnValues = { _setpointCPU, _setpointMemory };
-		return returnValues;
+	// Filled in place each time the setpoints are asked for
+	private final Setpoints _rawSetpoints = new Setpoints(NUMBEROFMEASUREMENTVALUES);
+	private final Setpoints _encodedSetpoints = new Setpoints(NUMBEROFMEASUREMENTVALUES);
+
+	@Override
+	public void setModel(ModelLQR model) {
+		_model = model;
+	}
+
+	@Override
+	public ModelLQR getModel() {
+		return _model;
+	}
+
+	@Override
+	public int getNumberOfMeasurements() {
+		return NUMBEROFMEASUREMENTVALUES;
 	}
 
+	/**
+	 * The setpoint given to the controller starts again from the new setpoint
+	 */
 	@Override
-	public Double[] getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
+	public void setSetpoint(int place, Double setpoint) {
+		double change = (setpoint == null) ? 1d : setpoint;
+		if (place == ModelLQR.CPU) {
+			_setpointCPU = setpoint;
+			_cpuChange = change;
+		} else if (place == ModelLQR.MEMORY) {
+			_setpointMemory = setpoint;
+			_memoryChange = change;
+		}
+	}
+
+	public Setpoints getRawSetpoints() {
+		_rawSetpoints.set(ModelLQR.CPU, _setpointCPU);
+		_rawSetpoints.set(ModelLQR.MEMORY, _setpointMemory);
+		return _rawSetpoints;
+	}
+
+	@Override
+	public Setpoints getSetpoints(int numberOfControlUpdates, long timeInSeconds) {
 		if (_setpointCPU == null) {
 			_setpointCPU = 1d;
 		}
@@ -219,10 +256,9 @@ public class MeasureSystem implements MeasureInterface {
 			_cpuChange = 1;
 		if (_memoryChange < 1)
 			_memoryChange = 1;
-		double rcpu = ModelLQR.encodeMeasurement(_cpuChange, ModelLQR.CPU);
-		double rmemory = ModelLQR.encodeMeasurement(_memoryChange, ModelLQR.MEMORY);
-		Double[] returnValues = { rcpu, rmemory };
-		return returnValues;
+		_encodedSetpoints.set(ModelLQR.CPU, _model.encodeMeasurement(_cpuChange, ModelLQR.CPU));
+		_encodedSetpoints.set(ModelLQR.MEMORY, _model.encodeMeasurement(_memoryChange, ModelLQR.MEMORY));
+		return _encodedSetpoints;
 	}
 
 }
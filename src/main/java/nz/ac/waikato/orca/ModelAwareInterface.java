@@ -0,0 +1,19 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Implemented by the controllers and measures that encode measurements with a
+ * ModelLQR. Controller gives its controller and measure the same model so the
+ * setpoints and measurements are encoded the same way as the model is fit.
+ */
+public interface ModelAwareInterface {
+
+	/**
+	 * Sets the model used to encode the measurements, must be called before the
+	 * controller starts
+	 *
+	 * @param model - The model to use
+	 */
+	void setModel(ModelLQR model);
+
+	ModelLQR getModel();
+}
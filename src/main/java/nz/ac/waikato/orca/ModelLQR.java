@@ -1,32 +1,86 @@
 package nz.ac.waikato.orca;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The log encoding used by the model controllers. A measurement is encoded as
+ * its log less the intercept of that measurement and a parameter as its log.
+ *
+ * Each controller owns its own model which is shared with its measure. The
+ * intercepts are held in an array that is never changed once it is published,
+ * an update swaps in a new array so a reader always sees a whole set.
+ */
 public class ModelLQR {
 
-  private static double[] intercept = { 0.39887, 4.2307403 };
+  private static final double[] DEFAULTINTERCEPTS = { 0.39887, 4.2307403 };
   public static final int CPU = 0;
   public static final int MEMORY = 1;
 
-  private ModelLQR() {
-  };
+  private final AtomicReference<double[]> intercept;
+
+  /**
+   * Starts with the default CPU and memory intercepts
+   */
+  public ModelLQR() {
+    this(DEFAULTINTERCEPTS);
+  }
+
+  /**
+   * @param Intercepts - The starting intercept of each measurement
+   */
+  public ModelLQR(double[] Intercepts) {
+    intercept = new AtomicReference<>(Intercepts.clone());
+  }
+
+  /**
+   * Sets the intercept of a measurement, measurements past CPU and memory start
+   * with an intercept of 0
+   */
+  public void UpdateIntercept(double NewIntercept, int type) {
+    while (true) {
+      double[] current = intercept.get();
+      double[] next = Arrays.copyOf(current, Math.max(current.length, type + 1));
+      next[type] = NewIntercept;
+      if (intercept.compareAndSet(current, next))
+        return;
+    }
+  }
+
+  /**
+   * Replaces every intercept at once so the intercepts from one fit are never
+   * mixed with the ones from the last fit
+   */
+  public void UpdateIntercepts(double[] NewIntercepts) {
+    intercept.set(NewIntercepts.clone());
+  }
+
+  /**
+   * @return - A copy of the intercept of each measurement
+   */
+  public double[] GetIntercepts() {
+    return intercept.get().clone();
+  }
 
-  public static void UpdateIntercept(double NewIntercept, int type) {
-    intercept[type] = NewIntercept;
+  private double GetIntercept(int type) {
+    double[] current = intercept.get();
+    return (type < current.length) ? current[type] : 0;
   }
 
-  public static double encodeMeasurement(double measurement, int type) {
-    return Math.log(measurement) - intercept[type];
+  public double encodeMeasurement(double measurement, int type) {
+    return Math.log(measurement) - GetIntercept(type);
   }
 
   public static double encodeParameter(double parameter) {
     return Math.log(parameter);
   }
 
-  public static double decodeMeasurement(double measurement, int type) {
-    return Math.exp(measurement + intercept[type]);
+  public double decodeMeasurement(double measurement, int type) {
+    return Math.exp(measurement + GetIntercept(type));
   }
 
   public static double decodeParameter(double parameter) {
     return Math.exp(parameter);
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides what Controller does when a tick takes longer than its interval and
+ * keeps count of how long the ticks take compared to the interval they have.
+ *
+ * The counters are only written by the thread running the ticks, other threads
+ * can read them while the controller runs.
+ */
+public class OverrunMonitor {
+
+	public enum Policy {
+		/**
+		 * The ticks that were missed are dropped and the next tick waits for the
+		 * next deadline on the schedule
+		 */
+		SKIP,
+		/**
+		 * The ticks that were missed are run straight after each other until the
+		 * schedule is met again
+		 */
+		CATCH_UP,
+		/**
+		 * The ticks that were missed are dropped and the number of control updates
+		 * is lowered, it is raised again once there is headroom
+		 */
+		DEGRADE;
+	}
+
+	/**
+	 * The upper bound of each histogram bucket as the tick duration over the
+	 * interval, the last bucket holds everything over the last bound
+	 */
+	public static final double[] BUCKETBOUNDS = { 0.1, 0.25, 0.5, 0.75, 1, 1.5, 2, 4 };
+	// The most ticks that are caught up before the schedule is reset
+	private static final int MAXCATCHUPTICKS = 10;
+	// A tick with one more update has to fit in this much of the interval
+	private static final double HEADROOM = 0.75;
+	// The number of ticks in a row with headroom before an update is added back
+	private static final int RECOVERTICKS = 10;
+
+	private volatile Policy _policy = Policy.DEGRADE;
+	private final AtomicLongArray _histogram = new AtomicLongArray(BUCKETBOUNDS.length + 1);
+	private volatile long _ticks = 0;
+	private volatile long _overruns = 0;
+	private volatile long _skippedTicks = 0;
+	private volatile long _caughtUpTicks = 0;
+	private volatile long _degrades = 0;
+	private volatile long _recoveries = 0;
+	private volatile long _controlUpdates = 0;
+	private volatile long _maxTickNanos = 0;
+	// Set by the last tick recorded
+	private boolean _overran = false;
+	private long _lastTickNanos = 0;
+	private int _headroomTicks = 0;
+
+	public Policy getPolicy() {
+		return _policy;
+	}
+
+	/**
+	 * Can be changed while the controller is running, it is used from the next
+	 * tick
+	 *
+	 * @param policy - What to do when a tick overruns
+	 * @throws Exception - If the policy is null
+	 */
+	public void setPolicy(Policy policy) throws Exception {
+		if (policy == null)
+			throw new Exception("A policy must be provided");
+		_policy = policy;
+	}
+
+	/**
+	 * Records a tick and moves the deadline based on the policy
+	 *
+	 * @param startTime      - When the tick started in nanoseconds
+	 * @param stopTime       - When the tick finished in nanoseconds
+	 * @param deadline       - The deadline of the next tick on the schedule
+	 * @param intervalNanos  - The time between ticks
+	 * @param controlUpdates - The number of control updates run in the tick
+	 * @return - The deadline to use for the next tick
+	 */
+	long record(long startTime, long stopTime, long deadline, long intervalNanos, int controlUpdates) {
+		long tickNanos = stopTime - startTime;
+		_lastTickNanos = tickNanos;
+		if (tickNanos > _maxTickNanos)
+			_maxTickNanos = tickNanos;
+		_ticks++;
+		_controlUpdates += controlUpdates;
+		_histogram.incrementAndGet(bucket(tickNanos, intervalNanos));
+		long lateNanos = stopTime - deadline;
+		_overran = lateNanos > 0;
+		if (!_overran)
+			return deadline;
+		_overruns++;
+		if (_policy == Policy.CATCH_UP) {
+			if (lateNanos <= MAXCATCHUPTICKS * intervalNanos) {
+				_caughtUpTicks++;
+				return deadline;
+			}
+		}
+		// Moves on to the first deadline on the schedule that has not passed
+		long missed = (intervalNanos > 0) ? lateNanos / intervalNanos + 1 : 1;
+		_skippedTicks += missed;
+		return deadline + missed * intervalNanos;
+	}
+
+	/**
+	 * Lowers the number of control updates after an overrun and raises it again
+	 * once a tick with one more update would fit in the interval, only used by
+	 * the DEGRADE policy
+	 *
+	 * @param current       - The number of control updates used by the last tick
+	 * @param target        - The number of control updates asked for
+	 * @param intervalNanos - The time between ticks
+	 * @return - The number of control updates to use for the next tick
+	 */
+	int controlUpdates(int current, int target, long intervalNanos) {
+		if (_policy != Policy.DEGRADE)
+			return target;
+		if (_overran) {
+			_headroomTicks = 0;
+			if (current > 1) {
+				_degrades++;
+				return current - 1;
+			}
+			return current;
+		}
+		if (current >= target) {
+			_headroomTicks = 0;
+			return target;
+		}
+		long nextTickNanos = _lastTickNanos + _lastTickNanos / Math.max(current, 1);
+		if (nextTickNanos < HEADROOM * intervalNanos) {
+			_headroomTicks++;
+		} else {
+			_headroomTicks = 0;
+		}
+		if (_headroomTicks >= RECOVERTICKS) {
+			_headroomTicks = 0;
+			_recoveries++;
+			return current + 1;
+		}
+		return current;
+	}
+
+	private static int bucket(long tickNanos, long intervalNanos) {
+		if (intervalNanos <= 0)
+			return BUCKETBOUNDS.length;
+		double ratio = (double) tickNanos / intervalNanos;
+		for (int i = 0; i < BUCKETBOUNDS.length; i++) {
+			if (ratio < BUCKETBOUNDS[i])
+				return i;
+		}
+		return BUCKETBOUNDS.length;
+	}
+
+	/**
+	 * @return - The number of ticks in each bucket of BUCKETBOUNDS, the last is
+	 *         the ticks over the last bound
+	 */
+	public long[] getHistogram() {
+		long[] returnValue = new long[_histogram.length()];
+		for (int i = 0; i < returnValue.length; i++) {
+			returnValue[i] = _histogram.get(i);
+		}
+		return returnValue;
+	}
+
+	public long getTicks() {
+		return _ticks;
+	}
+
+	/**
+	 * @return - The number of ticks that finished after the next deadline
+	 */
+	public long getOverruns() {
+		return _overruns;
+	}
+
+	/**
+	 * @return - The number of ticks dropped to get back on the schedule
+	 */
+	public long getSkippedTicks() {
+		return _skippedTicks;
+	}
+
+	/**
+	 * @return - The number of ticks started late to catch up with the schedule
+	 */
+	public long getCaughtUpTicks() {
+		return _caughtUpTicks;
+	}
+
+	/**
+	 * @return - The number of times the control updates were lowered
+	 */
+	public long getDegrades() {
+		return _degrades;
+	}
+
+	/**
+	 * @return - The number of times the control updates were raised again
+	 */
+	public long getRecoveries() {
+		return _recoveries;
+	}
+
+	/**
+	 * @return - The total number of control updates run
+	 */
+	public long getControlUpdates() {
+		return _controlUpdates;
+	}
+
+	/**
+	 * @return - The longest any tick has taken in nanoseconds
+	 */
+	public long getMaxTickNanos() {
+		return _maxTickNanos;
+	}
+}
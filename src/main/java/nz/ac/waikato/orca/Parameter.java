@@ -1,7 +1,30 @@
 package nz.ac.waikato.orca;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public abstract class Parameter<T> implements ParameterInterface<T> {
-	private static int nextID = 0;
+	private static final AtomicInteger nextID = new AtomicInteger();
+
+	// Runs the listeners that are not given an executor, the threads are made
+	// when needed and are daemons so they do not keep the program running
+	private static final ExecutorService LISTENEREXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Parameter-listener");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final List<Registration> _listeners = new CopyOnWriteArrayList<>();
 
 	protected double _maxValue = Double.MAX_VALUE;
 	protected double _minValue = Double.MIN_VALUE;
@@ -31,8 +54,7 @@ public abstract class Parameter<T> implements ParameterInterface<T> {
 	 */
 	protected Parameter(String name) {
 		this.NAME = name;
-		this.ID = nextID;
-		nextID++;
+		this.ID = nextID.getAndIncrement();
 	}
 
 	@Override
@@ -60,8 +82,103 @@ public abstract class Parameter<T> implements ParameterInterface<T> {
 		return _minValue;
 	}
 
+	/**
+	 * @return - True if the parameter was given a finite min and max instead of
+	 *         the defaults
+	 */
+	static boolean isBounded(ParameterInterface<?> parameter) {
+		double max = parameter.getMaxValue();
+		double min = parameter.getMinValue();
+		if (max == Double.MAX_VALUE || min == Double.MIN_VALUE || min == -Double.MAX_VALUE)
+			return false;
+		return !Double.isInfinite(max) && !Double.isNaN(max) && !Double.isInfinite(min) && !Double.isNaN(min);
+	}
+
 	@Override
 	public int getID() {
 		return ID;
 	}
+
+	@Override
+	public void addListener(ParameterListener listener) {
+		addListener(listener, LISTENEREXECUTOR);
+	}
+
+	@Override
+	public void addListener(ParameterListener listener, Executor executor) {
+		if (listener == null || executor == null)
+			throw new NullPointerException("The listener and executor must be provided");
+		_listeners.add(new Registration(listener, executor, getAsDouble()));
+	}
+
+	@Override
+	public boolean removeListener(ParameterListener listener) {
+		for (Registration registration : _listeners) {
+			if (registration.listener == listener)
+				return _listeners.remove(registration);
+		}
+		return false;
+	}
+
+	/**
+	 * Called by the subclasses after the value has changed, only hands the change
+	 * to the executors so it never blocks the caller
+	 */
+	protected void changed() {
+		if (_listeners.isEmpty())
+			return;
+		for (Registration registration : _listeners) {
+			registration.schedule();
+		}
+	}
+
+	/**
+	 * A listener and the last value given to it. At most one run is scheduled at
+	 * a time so a busy listener only gets the latest value once it returns
+	 */
+	private final class Registration implements Runnable {
+		final ParameterListener listener;
+		final Executor executor;
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+		// Only used by the run that is scheduled
+		double delivered;
+
+		Registration(ParameterListener listener, Executor executor, double value) {
+			this.listener = listener;
+			this.executor = executor;
+			this.delivered = value;
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) {
+					scheduled.set(false);
+					e.printStackTrace();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				double value = getAsDouble();
+				if (Double.compare(value, delivered) != 0) {
+					double oldValue = delivered;
+					delivered = value;
+					try {
+						listener.parameterChanged(Parameter.this, oldValue, value);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				scheduled.set(false);
+				// A change made while the listener was running would have seen the run
+				// as scheduled, so check again before leaving
+				if (Double.compare(getAsDouble(), delivered) == 0 || !scheduled.compareAndSet(false, true))
+					return;
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -2,8 +2,10 @@ package nz.ac.waikato.orca;
 
 public class ParameterFloat extends Parameter<Float> {
 
-	private Float _parameter;
-	private int _weight;
+	// Volatile so the value set by the controller thread is seen by the
+	// application threads
+	private volatile float _parameter;
+	private volatile int _weight;
 
 	public ParameterFloat(float initalParameter, Integer maxValue, Integer minValue, String name) {
 		super(maxValue.doubleValue(), minValue.doubleValue(), name);
@@ -19,7 +21,26 @@ public class ParameterFloat extends Parameter<Float> {
 
 	@Override
 	public double getDouble() {
-		return _parameter.doubleValue();
+		return _parameter;
+	}
+
+	@Override
+	public int getAsInt() {
+		return (int) _parameter;
+	}
+
+	@Override
+	public double getAsDouble() {
+		return _parameter;
+	}
+
+	/**
+	 * Reads the current value without boxing
+	 * 
+	 * @return The current value
+	 */
+	public float getAsFloat() {
+		return _parameter;
 	}
 
 	@Override
@@ -29,7 +50,16 @@ public class ParameterFloat extends Parameter<Float> {
 
 	@Override
 	public boolean set(Double newParameter) {
-		_parameter = newParameter.floatValue();
+		return set(newParameter.doubleValue());
+	}
+
+	@Override
+	public boolean set(double newParameter) {
+		float value = (float) newParameter;
+		if (Float.compare(value, _parameter) != 0) {
+			_parameter = value;
+			changed();
+		}
 		return true;
 	}
 
@@ -1,51 +1,72 @@
 package nz.ac.waikato.orca;
 
 public class ParameterInteger extends Parameter<Integer> {
-	// Required veriables to hold the weight and parameter
-	private Integer _parameter;
-	private int _weight = 1;
+	// Required veriables to hold the weight and parameter, volatile so the value
+	// set by the controller thread is seen by the application threads
+	private volatile int _parameter;
+	private volatile int _weight = 1;
 
 	// Allows user to define if the weight can be updated
 	private boolean _allowWeightUpdate;
 
 	public ParameterInteger(int initalParameter, Integer maxValue, Integer minValue, String name) {
 		super((maxValue != null) ? maxValue.doubleValue() : null, (minValue != null) ? minValue.doubleValue() : null, name);
-		_parameter = initalParameter;
+		_parameter = (initalParameter < _minValue) ? (int) _minValue : initalParameter;
 		_weight = 1;
 		_allowWeightUpdate = true;
 	}
 
 	public ParameterInteger(int initalParameter, String name) {
 		super(name);
-		_parameter = initalParameter;
+		_parameter = (initalParameter < _minValue) ? (int) _minValue : initalParameter;
 		_weight = 1;
 		_allowWeightUpdate = true;
 	}
 
 	@Override
 	public double getDouble() {
-		return _parameter.doubleValue();
+		return _parameter;
+	}
+
+	@Override
+	public int getAsInt() {
+		return _parameter;
+	}
+
+	@Override
+	public double getAsDouble() {
+		return _parameter;
 	}
 
 	@Override
 	public Integer get() {
-		if (_parameter < _minValue) {
-			_parameter = (int) _minValue;
-		}
 		return _parameter;
 	}
 
 	@Override
 	public boolean set(Double newParameter) {
+		return set(newParameter.doubleValue());
+	}
+
+	@Override
+	public boolean set(double newParameter) {
+		// The value is worked out first so readers only see the final value
+		int value;
+		boolean inRange = true;
 		if (newParameter > _maxValue) {
-			_parameter = (int) _maxValue;
-			return false;
+			value = (int) _maxValue;
+			inRange = false;
 		} else if (newParameter < _minValue) {
-			_parameter = (int) _minValue;
-			return false;
+			value = (int) _minValue;
+			inRange = false;
+		} else {
+			value = (int) Math.round(newParameter);
 		}
-		_parameter = (int) Math.round(newParameter);
-		return true;
+		if (value != _parameter) {
+			_parameter = value;
+			changed();
+		}
+		return inRange;
 	}
 
 	@Override
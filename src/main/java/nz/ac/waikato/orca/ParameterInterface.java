@@ -1,5 +1,7 @@
 package nz.ac.waikato.orca;
 
+import java.util.concurrent.Executor;
+
 public interface ParameterInterface<T> {
 	public enum Weights {
 		POSITIVE(1), IGNORE(0), NEGATIVE(-1);
@@ -17,6 +19,22 @@ public interface ParameterInterface<T> {
 
 	double getDouble();
 
+	/**
+	 * Reads the current value without boxing or locking, safe to call from any
+	 * thread and sees the last value set by the controller
+	 * 
+	 * @return The current value as an int
+	 */
+	int getAsInt();
+
+	/**
+	 * Reads the current value without boxing or locking, safe to call from any
+	 * thread and sees the last value set by the controller
+	 * 
+	 * @return The current value as a double
+	 */
+	double getAsDouble();
+
 	String getName();
 
 	void printValue();
@@ -25,6 +43,14 @@ public interface ParameterInterface<T> {
 
 	boolean set(Double newParameter);
 
+	/**
+	 * Sets the value without boxing
+	 * 
+	 * @param newParameter The new value
+	 * @return False if the value had to be limited to the min or max
+	 */
+	boolean set(double newParameter);
+
 	int getWeight();
 
 	boolean setWeight(Weights newWeight);
@@ -44,4 +70,25 @@ public interface ParameterInterface<T> {
 	double getMinValue();
 
 	int getID();
+
+	/**
+	 * Calls the listener on a background thread each time the value changes
+	 * 
+	 * @param listener The listener to add
+	 */
+	void addListener(ParameterListener listener);
+
+	/**
+	 * Calls the listener using the executor each time the value changes
+	 * 
+	 * @param listener The listener to add
+	 * @param executor The executor the listener is run on
+	 */
+	void addListener(ParameterListener listener, Executor executor);
+
+	/**
+	 * @param listener The listener to remove
+	 * @return True if the listener had been added
+	 */
+	boolean removeListener(ParameterListener listener);
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Told when the controller changes the value of a parameter. Listeners are
+ * called off the control thread and changes are coalesced, if the listener is
+ * still busy with the last change only the latest value is given once it
+ * returns.
+ */
+public interface ParameterListener {
+
+	/**
+	 * @param parameter - The parameter that changed
+	 * @param oldValue  - The value last given to this listener, or the value
+	 *                  when the listener was added
+	 * @param newValue  - The current value
+	 */
+	void parameterChanged(ParameterInterface<?> parameter, double oldValue, double newValue);
+}
@@ -0,0 +1,195 @@
+package nz.ac.waikato.orca;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every tick of a run to a memory mapped file so long runs can be kept
+ * cheaply and played back later with MeasureReplay.
+ *
+ * The file starts with a header followed by one fixed width row of doubles for
+ * each tick: the time in milliseconds, the measurements, the setpoints (NaN
+ * when there is no setpoint) and the value of each parameter in the order of
+ * the parameter IDs in the header. The number of rows is kept up to date in the
+ * header so a file from a run that did not close is still readable.
+ */
+public class RunRecorder implements Closeable {
+
+	// Written at the start of the file, "JCLR"
+	public static final int MAGIC = 0x4A434C52;
+	public static final int VERSION = 1;
+	// Place of the row count in the header
+	static final int ROWSPLACE = 8;
+
+	private static final long DEFAULTCHUNKSIZE = 64L * 1024 * 1024;
+
+	private final FileChannel _channel;
+	private final long _chunkSize;
+
+	// Set by the first tick recorded
+	private boolean _ready = false;
+	private MappedByteBuffer _header;
+	private MappedByteBuffer _chunk;
+	private long _chunkStart;
+	private long _dataStart;
+	private int _rowBytes;
+	private int _numberOfMeasurements;
+	private int _numberOfSetpoints;
+	private int[] _parameterIDs;
+	private long _rows = 0;
+
+	/**
+	 * @param file - The file to record to, it is replaced if it already exists
+	 * @throws IOException - If the file can not be opened
+	 */
+	public RunRecorder(File file) throws IOException {
+		this(file, DEFAULTCHUNKSIZE);
+	}
+
+	/**
+	 * @param file      - The file to record to, it is replaced if it already
+	 *                  exists
+	 * @param chunkSize - The number of bytes mapped at a time
+	 * @throws IOException - If the file can not be opened
+	 */
+	public RunRecorder(File file, long chunkSize) throws IOException {
+		_channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Appends one tick to the file
+	 *
+	 * @param currentRuntime - The time since the controller started in
+	 *                       milliseconds
+	 * @param measurements   - The measurements for this tick
+	 * @param setpoints      - The setpoints for this tick
+	 * @param parameters     - The parameters, can be null
+	 * @throws IOException - If more of the file could not be mapped
+	 */
+	public void record(long currentRuntime, double[] measurements, Setpoints setpoints,
+			ParameterInterface<?>[] parameters) throws IOException {
+		if (!_ready)
+			setup(measurements, setpoints, parameters);
+		long rowStart = _dataStart + _rows * _rowBytes;
+		if (rowStart + _rowBytes > _chunkStart + _chunk.capacity())
+			mapChunk(rowStart);
+		int place = (int) (rowStart - _chunkStart);
+		_chunk.putDouble(place, currentRuntime);
+		place += 8;
+		for (int i = 0; i < _numberOfMeasurements; i++, place += 8) {
+			_chunk.putDouble(place,
+					(measurements != null && i < measurements.length) ? measurements[i] : Double.NaN);
+		}
+		for (int i = 0; i < _numberOfSetpoints; i++, place += 8) {
+			boolean hasSetpoint = setpoints != null && i < setpoints.size() && setpoints.has(i);
+			_chunk.putDouble(place, hasSetpoint ? setpoints.get(i) : Double.NaN);
+		}
+		for (int i = 0; i < _parameterIDs.length; i++, place += 8) {
+			_chunk.putDouble(place, parameters[i].getDouble());
+		}
+		_rows++;
+		_header.putLong(ROWSPLACE, _rows);
+	}
+
+	private void setup(double[] measurements, Setpoints setpoints, ParameterInterface<?>[] parameters)
+			throws IOException {
+		_numberOfMeasurements = (measurements != null) ? measurements.length : 0;
+		_numberOfSetpoints = (setpoints != null) ? setpoints.size() : 0;
+		int numberOfParameters = (parameters != null) ? parameters.length : 0;
+		_parameterIDs = new int[numberOfParameters];
+		byte[][] names = new byte[numberOfParameters][];
+		// magic, version, rows, measurements, setpoints, parameters
+		int headerBytes = 4 + 4 + 8 + 4 + 4 + 4;
+		for (int i = 0; i < numberOfParameters; i++) {
+			_parameterIDs[i] = parameters[i].getID();
+			names[i] = parameters[i].getName().getBytes(StandardCharsets.UTF_8);
+			headerBytes += 4 + 4 + names[i].length;
+		}
+		// Keeps the rows lined up to 8 bytes
+		_dataStart = (headerBytes + 7) & ~7;
+		_rowBytes = 8 * (1 + _numberOfMeasurements + _numberOfSetpoints + numberOfParameters);
+		_header = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _dataStart);
+		_header.putInt(MAGIC);
+		_header.putInt(VERSION);
+		_header.putLong(0);
+		_header.putInt(_numberOfMeasurements);
+		_header.putInt(_numberOfSetpoints);
+		_header.putInt(numberOfParameters);
+		for (int i = 0; i < numberOfParameters; i++) {
+			_header.putInt(_parameterIDs[i]);
+			_header.putInt(names[i].length);
+			_header.put(names[i]);
+		}
+		mapChunk(_dataStart);
+		_ready = true;
+	}
+
+	private void mapChunk(long start) throws IOException {
+		long size = Math.max(_chunkSize, _rowBytes);
+		_chunk = _channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+		_chunkStart = start;
+	}
+
+	/**
+	 * @return - The number of ticks recorded
+	 */
+	public long getRows() {
+		return _rows;
+	}
+
+	/**
+	 * Writes the mapped rows to disk and cuts the file down to the rows recorded
+	 */
+	@Override
+	public void close() throws IOException {
+		if (_ready) {
+			_chunk.force();
+			_header.force();
+			_channel.truncate(_dataStart + _rows * _rowBytes);
+		}
+		_channel.close();
+	}
+
+	/**
+	 * Reads the header of a recording, used by MeasureReplay
+	 */
+	static final class Header {
+		final long rows;
+		final int numberOfMeasurements;
+		final int numberOfSetpoints;
+		final int[] parameterIDs;
+		final String[] parameterNames;
+		final long dataStart;
+		final int rowBytes;
+
+		Header(ByteBuffer buffer) throws IOException {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a recording");
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported recording version " + version);
+			rows = buffer.getLong();
+			numberOfMeasurements = buffer.getInt();
+			numberOfSetpoints = buffer.getInt();
+			int numberOfParameters = buffer.getInt();
+			parameterIDs = new int[numberOfParameters];
+			parameterNames = new String[numberOfParameters];
+			for (int i = 0; i < numberOfParameters; i++) {
+				parameterIDs[i] = buffer.getInt();
+				byte[] name = new byte[buffer.getInt()];
+				buffer.get(name);
+				parameterNames[i] = new String(name, StandardCharsets.UTF_8);
+			}
+			dataStart = (buffer.position() + 7) & ~7;
+			rowBytes = 8 * (1 + numberOfMeasurements + numberOfSetpoints + numberOfParameters);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package nz.ac.waikato.orca;
+
+/**
+ * Holds a setpoint for each measurement as primitive values with a mask for the
+ * measurements that do not have a setpoint. A measure keeps one of these and
+ * fills it in place each tick so no boxed values are made.
+ */
+public class Setpoints {
+
+	private final double[] _values;
+	private final boolean[] _present;
+
+	/**
+	 * Creates the setpoints with none of them set
+	 *
+	 * @param size - The number of measurements
+	 */
+	public Setpoints(int size) {
+		_values = new double[size];
+		_present = new boolean[size];
+	}
+
+	/**
+	 * Creates the setpoints from boxed values
+	 *
+	 * @param setpoints - The setpoint for each measurement or null if the
+	 *                  measurement does not have one
+	 */
+	public Setpoints(Double[] setpoints) {
+		this(setpoints.length);
+		for (int i = 0; i < setpoints.length; i++) {
+			set(i, setpoints[i]);
+		}
+	}
+
+	public int size() {
+		return _values.length;
+	}
+
+	/**
+	 * @param place - The measurement
+	 * @return - True if the measurement has a setpoint
+	 */
+	public boolean has(int place) {
+		return _present[place];
+	}
+
+	/**
+	 * @param place - The measurement
+	 * @return - The setpoint for the measurement, only has a meaning if has is
+	 *         true
+	 */
+	public double get(int place) {
+		return _values[place];
+	}
+
+	public void set(int place, double value) {
+		_values[place] = value;
+		_present[place] = true;
+	}
+
+	/**
+	 * @param place - The measurement
+	 * @param value - The setpoint or null to clear it
+	 */
+	public void set(int place, Double value) {
+		if (value == null)
+			clear(place);
+		else
+			set(place, value.doubleValue());
+	}
+
+	public void clear(int place) {
+		_values[place] = 0;
+		_present[place] = false;
+	}
+
+	/**
+	 * Copies the setpoints from another set of the same size
+	 */
+	public void set(Setpoints setpoints) {
+		System.arraycopy(setpoints._values, 0, _values, 0, _values.length);
+		System.arraycopy(setpoints._present, 0, _present, 0, _present.length);
+	}
+
+	/**
+	 * @return - True if none of the measurements have a setpoint
+	 */
+	public boolean isEmpty() {
+		for (int i = 0; i < _present.length; i++) {
+			if (_present[i])
+				return false;
+		}
+		return true;
+	}
+}
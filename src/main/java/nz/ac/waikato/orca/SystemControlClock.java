@@ -0,0 +1,21 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uses System.nanoTime and sleeps the thread, the default clock
+ */
+public class SystemControlClock implements ControlClock {
+
+	public static final SystemControlClock INSTANCE = new SystemControlClock();
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void sleepNanos(long nanos) throws InterruptedException {
+		TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+}
@@ -0,0 +1,280 @@
+package nz.ac.waikato.orca;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the measurements, setpoints and parameter values of each tick
+ * without doing any I/O on the control thread. Each tick is copied into a
+ * preallocated ring buffer and a background thread writes them out in batches
+ * as CSV or binary.
+ *
+ * If the writer falls behind and the ring fills up the newest ticks are
+ * dropped and counted instead of making the control thread wait.
+ */
+public class TelemetrySink implements Closeable {
+
+	public enum Format {
+		CSV, BINARY;
+	}
+
+	// Written at the start of the binary format, "JCLT"
+	public static final int BINARYMAGIC = 0x4A434C54;
+	public static final int BINARYVERSION = 1;
+
+	private static final int DEFAULTCAPACITY = 1024;
+	private static final long DEFAULTFLUSHINTERVALNANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final OutputStream _out;
+	private final Format _format;
+	private final int _capacity;
+	private final long _flushIntervalNanos;
+
+	// Set by the first tick recorded
+	private double[] _ring;
+	private int _width;
+	private int _numberOfMeasurements;
+	private int _numberOfSetpoints;
+	private String[] _parameterNames;
+
+	// The next tick to write and the next tick to read, only the control thread
+	// moves the head and only the writer moves the tail
+	private final AtomicLong _head = new AtomicLong();
+	private final AtomicLong _tail = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+	private volatile boolean _ready = false;
+	private volatile boolean _running = true;
+	private volatile IOException _lastError;
+	private final Thread _writer;
+
+	/**
+	 * @param out    - The stream the ticks are written to, it is closed when the
+	 *               sink is closed
+	 * @param format - The format to write in
+	 */
+	public TelemetrySink(OutputStream out, Format format) throws Exception {
+		this(out, format, DEFAULTCAPACITY, DEFAULTFLUSHINTERVALNANOS, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param out           - The stream the ticks are written to, it is closed
+	 *                      when the sink is closed
+	 * @param format        - The format to write in
+	 * @param capacity      - The number of ticks the ring buffer can hold
+	 * @param flushInterval - How often the writer writes out the ticks
+	 * @param timeFormat    - The unit the flush interval is given in
+	 * @throws Exception - If any of the values are invalid
+	 */
+	public TelemetrySink(OutputStream out, Format format, int capacity, long flushInterval, TimeUnit timeFormat)
+			throws Exception {
+		if (out == null || format == null || timeFormat == null)
+			throw new Exception("The output, format and time format must be provided");
+		if (capacity < 1 || flushInterval <= 0)
+			throw new Exception("The capacity and flush interval must be greater than 0");
+		_out = new BufferedOutputStream(out, 1 << 16);
+		_format = format;
+		_capacity = capacity;
+		_flushIntervalNanos = timeFormat.toNanos(flushInterval);
+		_writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "TelemetrySink-writer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	/**
+	 * @return - A sink that writes CSV to standard output, closing it only
+	 *         flushes standard output
+	 */
+	public static TelemetrySink standardOutput() throws Exception {
+		return new TelemetrySink(new FilterOutputStream(System.out) {
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		}, Format.CSV);
+	}
+
+	/**
+	 * Copies one tick into the ring buffer, never blocks
+	 *
+	 * @param currentRuntime - The time since the controller started in
+	 *                       milliseconds
+	 * @param measurements   - The measurements for this tick
+	 * @param setpoints      - The setpoints for this tick, null setpoints are kept
+	 *                       as empty
+	 * @param parameters     - The parameters, can be null
+	 * @return - False if the tick was dropped because the ring is full
+	 */
+	public boolean record(long currentRuntime, double[] measurements, Setpoints setpoints,
+			ParameterInterface<?>[] parameters) {
+		if (!_ready)
+			setup(measurements, setpoints, parameters);
+		long head = _head.get();
+		if (head - _tail.get() >= _capacity) {
+			_dropped.incrementAndGet();
+			return false;
+		}
+		int place = (int) (head % _capacity) * _width;
+		_ring[place++] = currentRuntime;
+		for (int i = 0; i < _numberOfMeasurements; i++) {
+			_ring[place++] = (measurements != null && i < measurements.length) ? measurements[i] : Double.NaN;
+		}
+		for (int i = 0; i < _numberOfSetpoints; i++) {
+			boolean hasSetpoint = setpoints != null && i < setpoints.size() && setpoints.has(i);
+			_ring[place++] = hasSetpoint ? setpoints.get(i) : Double.NaN;
+		}
+		for (int i = 0; i < _parameterNames.length; i++) {
+			_ring[place++] = parameters[i].getDouble();
+		}
+		// Publishes the copied values to the writer
+		_head.lazySet(head + 1);
+		return true;
+	}
+
+	private void setup(double[] measurements, Setpoints setpoints, ParameterInterface<?>[] parameters) {
+		_numberOfMeasurements = (measurements != null) ? measurements.length : 0;
+		_numberOfSetpoints = (setpoints != null) ? setpoints.size() : 0;
+		int numberOfParameters = (parameters != null) ? parameters.length : 0;
+		_parameterNames = new String[numberOfParameters];
+		for (int i = 0; i < numberOfParameters; i++) {
+			_parameterNames[i] = parameters[i].getName();
+		}
+		_width = 1 + _numberOfMeasurements + _numberOfSetpoints + numberOfParameters;
+		_ring = new double[_capacity * _width];
+		_ready = true;
+	}
+
+	/**
+	 * @return - The number of ticks dropped because the writer fell behind
+	 */
+	public long getDropped() {
+		return _dropped.get();
+	}
+
+	/**
+	 * @return - The last error from writing or null if there has not been one
+	 */
+	public IOException getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * Writes out every tick recorded and closes the stream
+	 */
+	@Override
+	public void close() throws IOException {
+		_running = false;
+		LockSupport.unpark(_writer);
+		try {
+			_writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_out.close();
+	}
+
+	private void writeLoop() {
+		boolean headerWritten = false;
+		StringBuilder line = new StringBuilder();
+		DataOutputStream data = new DataOutputStream(_out);
+		while (true) {
+			boolean running = _running;
+			try {
+				if (_ready) {
+					if (!headerWritten) {
+						writeHeader(data);
+						headerWritten = true;
+					}
+					if (drain(data, line))
+						data.flush();
+				}
+			} catch (IOException e) {
+				_lastError = e;
+				e.printStackTrace();
+				return;
+			}
+			if (!running)
+				return;
+			LockSupport.parkNanos(_flushIntervalNanos);
+		}
+	}
+
+	/**
+	 * Writes every tick that has been recorded
+	 *
+	 * @return - True if anything was written
+	 */
+	private boolean drain(DataOutputStream data, StringBuilder line) throws IOException {
+		long tail = _tail.get();
+		long head = _head.get();
+		if (tail == head)
+			return false;
+		for (; tail < head; tail++) {
+			int place = (int) (tail % _capacity) * _width;
+			if (_format == Format.BINARY) {
+				for (int i = 0; i < _width; i++) {
+					data.writeDouble(_ring[place + i]);
+				}
+			} else {
+				line.setLength(0);
+				line.append((long) _ring[place]);
+				for (int i = 1; i < _width; i++) {
+					line.append(',');
+					double value = _ring[place + i];
+					if (!Double.isNaN(value))
+						line.append(value);
+				}
+				line.append('\n');
+				data.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+			}
+			// Frees the slot for the control thread as soon as it is written
+			_tail.lazySet(tail + 1);
+		}
+		return true;
+	}
+
+	private void writeHeader(DataOutputStream data) throws IOException {
+		if (_format == Format.BINARY) {
+			data.writeInt(BINARYMAGIC);
+			data.writeInt(BINARYVERSION);
+			data.writeInt(_numberOfMeasurements);
+			data.writeInt(_numberOfSetpoints);
+			data.writeInt(_parameterNames.length);
+			for (String name : _parameterNames) {
+				data.writeUTF(name);
+			}
+			return;
+		}
+		StringBuilder header = new StringBuilder("time");
+		for (int i = 0; i < _numberOfMeasurements; i++) {
+			header.append(",measurement ").append(i);
+		}
+		for (int i = 0; i < _numberOfSetpoints; i++) {
+			header.append(",set ").append(i);
+		}
+		for (String name : _parameterNames) {
+			header.append(',').append(name);
+		}
+		header.append('\n');
+		data.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+}
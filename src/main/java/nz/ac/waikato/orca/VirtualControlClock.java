@@ -0,0 +1,35 @@
+package nz.ac.waikato.orca;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when it is slept on or advanced, sleeping returns
+ * straight away. Used with Controller.simulate to step through hours of control
+ * in seconds.
+ */
+public class VirtualControlClock implements ControlClock {
+
+	private final AtomicLong _nanoTime = new AtomicLong();
+
+	@Override
+	public long nanoTime() {
+		return _nanoTime.get();
+	}
+
+	@Override
+	public void sleepNanos(long nanos) {
+		if (nanos > 0)
+			_nanoTime.addAndGet(nanos);
+	}
+
+	/**
+	 * Moves the clock forward
+	 * 
+	 * @param time       - The time to move forward by
+	 * @param timeFormat - The unit the time is given in
+	 */
+	public void advance(long time, TimeUnit timeFormat) {
+		sleepNanos(timeFormat.toNanos(time));
+	}
+}
@@ -0,0 +1,135 @@
+package nz.ac.waikato.orca.ml;
+
+import java.util.Random;
+
+/**
+ * Space filling designs used to pick the parameter values to train on. Each
+ * point is spread evenly in log space between the lower and upper bound of
+ * each parameter as the model is fit against the log of the parameters.
+ */
+public class ExperimentDesign {
+
+  public enum Type {
+    LATINHYPERCUBE, SOBOL;
+  }
+
+  // Joe and Kuo direction numbers for dimensions 2 to 16, the degree, the
+  // coefficients of the primitive polynomial and the starting numbers
+  private static final int[][] SOBOLDIRECTIONS = { { 1, 0, 1 }, { 2, 1, 1, 3 }, { 3, 1, 1, 3, 1 },
+      { 3, 2, 1, 1, 1 }, { 4, 1, 1, 1, 3, 3 }, { 4, 4, 1, 3, 5, 13 }, { 5, 2, 1, 1, 5, 5, 17 },
+      { 5, 4, 1, 1, 5, 5, 5 }, { 5, 7, 1, 1, 7, 11, 19 }, { 5, 11, 1, 1, 5, 1, 1 }, { 5, 13, 1, 1, 1, 3, 11 },
+      { 5, 14, 1, 3, 5, 5, 31 }, { 6, 1, 1, 3, 3, 9, 7, 49 }, { 6, 13, 1, 1, 1, 15, 21, 21 },
+      { 6, 16, 1, 3, 1, 13, 27, 49 } };
+  private static final int SOBOLBITS = 31;
+  public static final int MAXSOBOLDIMENSIONS = SOBOLDIRECTIONS.length + 1;
+
+  /**
+   * Creates the points of a design
+   *
+   * @param DesignType - The design to use
+   * @param Lower      - The lowest value of each dimension, must be greater
+   *                   than 0
+   * @param Upper      - The highest value of each dimension
+   * @param Points     - The number of points to create
+   * @param Seed       - The seed used to shuffle or scramble the design
+   * @return - The points, a row for each point and a column for each dimension
+   * @throws Exception - If the bounds are invalid or Sobol is asked for with too
+   *                   many dimensions
+   */
+  public static double[][] Create(Type DesignType, double[] Lower, double[] Upper, int Points, long Seed)
+      throws Exception {
+    if (Lower.length != Upper.length)
+      throw new Exception("There must be an upper and lower bound for each dimension");
+    if (Points < 1)
+      throw new Exception("There must be at least one point");
+    for (int i = 0; i < Lower.length; i++) {
+      if (Lower[i] <= 0 || Upper[i] < Lower[i])
+        throw new Exception("The bounds must be greater than 0 and the upper can not be less than the lower");
+    }
+    Random Generator = new Random(Seed);
+    double[][] Unit;
+    if (DesignType == Type.SOBOL)
+      Unit = Sobol(Lower.length, Points, Generator);
+    else
+      Unit = LatinHypercube(Lower.length, Points, Generator);
+    for (int j = 0; j < Lower.length; j++) {
+      double Low = Math.log(Lower[j]);
+      double Range = Math.log(Upper[j]) - Low;
+      for (int i = 0; i < Points; i++) {
+        Unit[i][j] = Math.min(Upper[j], Math.max(Lower[j], Math.exp(Low + Unit[i][j] * Range)));
+      }
+    }
+    return Unit;
+  }
+
+  /**
+   * Each dimension is cut into as many strata as there are points and each
+   * stratum is used once, the strata are shuffled for each dimension
+   */
+  static double[][] LatinHypercube(int Dimensions, int Points, Random Generator) {
+    double[][] Unit = new double[Points][Dimensions];
+    int[] Strata = new int[Points];
+    for (int j = 0; j < Dimensions; j++) {
+      for (int i = 0; i < Points; i++) {
+        Strata[i] = i;
+      }
+      for (int i = Points - 1; i > 0; i--) {
+        int Swap = Generator.nextInt(i + 1);
+        int Temp = Strata[i];
+        Strata[i] = Strata[Swap];
+        Strata[Swap] = Temp;
+      }
+      for (int i = 0; i < Points; i++) {
+        Unit[i][j] = (Strata[i] + Generator.nextDouble()) / Points;
+      }
+    }
+    return Unit;
+  }
+
+  /**
+   * The Sobol sequence with a random digital shift for each dimension so the
+   * seed gives a different design with the same spread
+   */
+  static double[][] Sobol(int Dimensions, int Points, Random Generator) throws Exception {
+    if (Dimensions > MAXSOBOLDIMENSIONS)
+      throw new Exception("Sobol can only be used with up to " + MAXSOBOLDIMENSIONS + " dimensions");
+    double[][] Unit = new double[Points][Dimensions];
+    double Scale = 1.0 / (1L << SOBOLBITS);
+    for (int j = 0; j < Dimensions; j++) {
+      int[] Directions = Directions(j);
+      int Shift = Generator.nextInt() & ((1 << SOBOLBITS) - 1);
+      int Value = 0;
+      for (int i = 0; i < Points; i++) {
+        Unit[i][j] = (Value ^ Shift) * Scale;
+        // Gray code order, the bit that changes is the lowest zero bit of i
+        Value ^= Directions[Integer.numberOfTrailingZeros(~i)];
+      }
+    }
+    return Unit;
+  }
+
+  private static int[] Directions(int Dimension) {
+    int[] Directions = new int[SOBOLBITS];
+    if (Dimension == 0) {
+      for (int k = 0; k < SOBOLBITS; k++) {
+        Directions[k] = 1 << (SOBOLBITS - 1 - k);
+      }
+      return Directions;
+    }
+    int[] Row = SOBOLDIRECTIONS[Dimension - 1];
+    int Degree = Row[0];
+    int Polynomial = Row[1];
+    for (int k = 0; k < Math.min(Degree, SOBOLBITS); k++) {
+      Directions[k] = Row[k + 2] << (SOBOLBITS - 1 - k);
+    }
+    for (int k = Degree; k < SOBOLBITS; k++) {
+      int Value = Directions[k - Degree] ^ (Directions[k - Degree] >>> Degree);
+      for (int b = 1; b < Degree; b++) {
+        if (((Polynomial >>> (Degree - 1 - b)) & 1) == 1)
+          Value ^= Directions[k - b];
+      }
+      Directions[k] = Value;
+    }
+    return Directions;
+  }
+}
@@ -0,0 +1,150 @@
+package nz.ac.waikato.orca.ml;
+
+/**
+ * Recursive least squares with a forgetting factor. Fits target = c . inputs +
+ * intercept one sample at a time in O(p^2), where p is the number of inputs
+ * plus the intercept. The coefficients are laid out the same as the inputs with
+ * the intercept last.
+ */
+public class RecursiveLeastSquares {
+
+  private static final double DEFAULTINITIALCOVARIANCE = 1000;
+  // Stops the covariance blowing up when the inputs are not changing
+  private static final double MAXCOVARIANCETRACE = 1e6;
+
+  private final int Size;
+  private final double ForgettingFactor;
+  private final double InitialCovariance;
+  private final double[] Coefficients;
+  private final double[] Covariance;
+  // Work buffers so that an update does not allocate
+  private final double[] Regressor;
+  private final double[] Gain;
+  private long TotalSamples;
+
+  /**
+   * @param NumberOfInputs   - The number of inputs not including the intercept
+   * @param ForgettingFactor - Between 0 and 1, the weight given to old samples
+   *                         on each update. 1 never forgets
+   * @throws Exception - If the number of inputs or the forgetting factor is
+   *                   invalid
+   */
+  public RecursiveLeastSquares(int NumberOfInputs, double ForgettingFactor) throws Exception {
+    this(NumberOfInputs, ForgettingFactor, DEFAULTINITIALCOVARIANCE);
+  }
+
+  /**
+   * @param NumberOfInputs    - The number of inputs not including the intercept
+   * @param ForgettingFactor  - Between 0 and 1, the weight given to old samples
+   *                          on each update. 1 never forgets
+   * @param InitialCovariance - How uncertain the starting coefficients are,
+   *                          larger values let the first samples move them more
+   * @throws Exception - If any of the values are invalid
+   */
+  public RecursiveLeastSquares(int NumberOfInputs, double ForgettingFactor, double InitialCovariance)
+      throws Exception {
+    if (NumberOfInputs < 1)
+      throw new Exception("There must be at least one input");
+    if (ForgettingFactor <= 0 || ForgettingFactor > 1)
+      throw new Exception("The forgetting factor must be greater than 0 and at most 1");
+    if (InitialCovariance <= 0)
+      throw new Exception("The initial covariance must be greater than 0");
+    this.Size = NumberOfInputs + 1;
+    this.ForgettingFactor = ForgettingFactor;
+    this.InitialCovariance = InitialCovariance;
+    Coefficients = new double[Size];
+    Covariance = new double[Size * Size];
+    Regressor = new double[Size];
+    Gain = new double[Size];
+    Reset();
+  }
+
+  /**
+   * Forgets all samples, the coefficients are set back to 0
+   */
+  public void Reset() {
+    for (int i = 0; i < Size; i++) {
+      Coefficients[i] = 0;
+      for (int j = 0; j < Size; j++) {
+        Covariance[i * Size + j] = (i == j) ? InitialCovariance : 0;
+      }
+    }
+    TotalSamples = 0;
+  }
+
+  /**
+   * Sets the starting coefficients, used to start from an already known model
+   *
+   * @param Values - The coefficients with the intercept last
+   */
+  public void SetCoefficients(double[] Values) {
+    System.arraycopy(Values, 0, Coefficients, 0, Size);
+  }
+
+  /**
+   * Adds one sample to the fit
+   *
+   * @param Inputs - The inputs for this sample
+   * @param Target - The value measured for these inputs
+   */
+  public void Update(double[] Inputs, double Target) {
+    for (int i = 0; i < Size - 1; i++) {
+      Regressor[i] = Inputs[i];
+    }
+    Regressor[Size - 1] = 1;
+    // Gain = P * phi / (lambda + phi' * P * phi)
+    double Denominator = ForgettingFactor;
+    double Prediction = 0;
+    for (int i = 0; i < Size; i++) {
+      double Sum = 0;
+      for (int j = 0; j < Size; j++) {
+        Sum += Covariance[i * Size + j] * Regressor[j];
+      }
+      Gain[i] = Sum;
+      Denominator += Regressor[i] * Sum;
+      Prediction += Coefficients[i] * Regressor[i];
+    }
+    double Error = Target - Prediction;
+    for (int i = 0; i < Size; i++) {
+      Gain[i] /= Denominator;
+      Coefficients[i] += Gain[i] * Error;
+    }
+    // P = (P - Gain * phi' * P) / lambda, P is symmetric so phi' * P is the
+    // unscaled gain
+    double Trace = 0;
+    for (int i = 0; i < Size; i++) {
+      for (int j = 0; j < Size; j++) {
+        double Value = (Covariance[i * Size + j] - Gain[i] * Gain[j] * Denominator) / ForgettingFactor;
+        Covariance[i * Size + j] = Value;
+      }
+      Trace += Covariance[i * Size + i];
+    }
+    if (Trace > MAXCOVARIANCETRACE) {
+      double Scale = MAXCOVARIANCETRACE / Trace;
+      for (int i = 0; i < Covariance.length; i++) {
+        Covariance[i] *= Scale;
+      }
+    }
+    TotalSamples++;
+  }
+
+  /**
+   * @param Place - The input to get the coefficient for
+   * @return - The coefficient for the input
+   */
+  public double GetCoefficient(int Place) {
+    return Coefficients[Place];
+  }
+
+  public double GetIntercept() {
+    return Coefficients[Size - 1];
+  }
+
+  public int GetNumberOfInputs() {
+    return Size - 1;
+  }
+
+  public long GetTotalSamples() {
+    return TotalSamples;
+  }
+}
@@ -0,0 +1,188 @@
+package nz.ac.waikato.orca.ml;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash index from a tuple of parameter values to the running
+ * totals of the values measured for it. The keys and totals are held in flat
+ * primitive arrays so adding a sample does not create any objects, the entries
+ * are kept in the order they were first added.
+ */
+public class SampleIndex {
+
+  private static final int DEFAULTCAPACITY = 64;
+
+  private final int KeyWidth;
+  private final int ValueWidth;
+
+  // Holds the entry number + 1 for each slot, 0 is an empty slot
+  private int[] Table;
+  private int Mask;
+
+  private int[] Keys;
+  private double[] Sums;
+  private int[] Counts;
+  private int Size;
+
+  /**
+   * @param KeyWidth   - The number of parameter values in each key
+   * @param ValueWidth - The number of measured values for each sample
+   */
+  public SampleIndex(int KeyWidth, int ValueWidth) {
+    this.KeyWidth = KeyWidth;
+    this.ValueWidth = ValueWidth;
+    Table = new int[DEFAULTCAPACITY * 2];
+    Mask = Table.length - 1;
+    Keys = new int[DEFAULTCAPACITY * KeyWidth];
+    Sums = new double[DEFAULTCAPACITY * ValueWidth];
+    Counts = new int[DEFAULTCAPACITY];
+    Size = 0;
+  }
+
+  /**
+   * Adds the values to the totals for the key, the key is added if it has not
+   * been seen before
+   *
+   * @param Key    - The parameter values the sample was measured at
+   * @param Values - The measured values
+   * @return - The entry the values were added to
+   */
+  public int Add(int[] Key, double[] Values) {
+    int Slot = Hash(Key) & Mask;
+    while (true) {
+      int Entry = Table[Slot] - 1;
+      if (Entry < 0) {
+        Entry = Insert(Key);
+        Table[Slot] = Entry + 1;
+        if (Size * 2 > Table.length)
+          Rehash();
+        AddValues(Entry, Values);
+        return Entry;
+      }
+      if (KeyEquals(Entry, Key)) {
+        AddValues(Entry, Values);
+        return Entry;
+      }
+      Slot = (Slot + 1) & Mask;
+    }
+  }
+
+  /**
+   * @param Key - The parameter values to look for
+   * @return - The entry for the key or -1 if it has not been added
+   */
+  public int Find(int[] Key) {
+    int Slot = Hash(Key) & Mask;
+    while (true) {
+      int Entry = Table[Slot] - 1;
+      if (Entry < 0)
+        return -1;
+      if (KeyEquals(Entry, Key))
+        return Entry;
+      Slot = (Slot + 1) & Mask;
+    }
+  }
+
+  public int Size() {
+    return Size;
+  }
+
+  public int GetKey(int Entry, int Place) {
+    return Keys[Entry * KeyWidth + Place];
+  }
+
+  public int GetCount(int Entry) {
+    return Counts[Entry];
+  }
+
+  /**
+   * @param Entry - The entry to get the value for
+   * @param Place - Which of the measured values to get
+   * @return - The average of the values added to the entry
+   */
+  public double GetMean(int Entry, int Place) {
+    return Sums[Entry * ValueWidth + Place] / Counts[Entry];
+  }
+
+  public int GetKeyWidth() {
+    return KeyWidth;
+  }
+
+  public int GetValueWidth() {
+    return ValueWidth;
+  }
+
+  public void Clear() {
+    Arrays.fill(Table, 0);
+    Arrays.fill(Sums, 0, Size * ValueWidth, 0);
+    Arrays.fill(Counts, 0, Size, 0);
+    Size = 0;
+  }
+
+  private int Insert(int[] Key) {
+    if (Size == Counts.length) {
+      int NewCapacity = Counts.length * 2;
+      Keys = Arrays.copyOf(Keys, NewCapacity * KeyWidth);
+      Sums = Arrays.copyOf(Sums, NewCapacity * ValueWidth);
+      Counts = Arrays.copyOf(Counts, NewCapacity);
+    }
+    System.arraycopy(Key, 0, Keys, Size * KeyWidth, KeyWidth);
+    return Size++;
+  }
+
+  private void AddValues(int Entry, double[] Values) {
+    int Offset = Entry * ValueWidth;
+    for (int i = 0; i < ValueWidth; i++) {
+      Sums[Offset + i] += Values[i];
+    }
+    Counts[Entry]++;
+  }
+
+  private boolean KeyEquals(int Entry, int[] Key) {
+    int Offset = Entry * KeyWidth;
+    for (int i = 0; i < KeyWidth; i++) {
+      if (Keys[Offset + i] != Key[i])
+        return false;
+    }
+    return true;
+  }
+
+  private void Rehash() {
+    Table = new int[Table.length * 2];
+    Mask = Table.length - 1;
+    for (int Entry = 0; Entry < Size; Entry++) {
+      int Slot = HashEntry(Entry) & Mask;
+      while (Table[Slot] != 0) {
+        Slot = (Slot + 1) & Mask;
+      }
+      Table[Slot] = Entry + 1;
+    }
+  }
+
+  private int Hash(int[] Key) {
+    int h = 1;
+    for (int i = 0; i < KeyWidth; i++) {
+      h = 31 * h + Key[i];
+    }
+    return Mix(h);
+  }
+
+  private int HashEntry(int Entry) {
+    int h = 1;
+    int Offset = Entry * KeyWidth;
+    for (int i = 0; i < KeyWidth; i++) {
+      h = 31 * h + Keys[Offset + i];
+    }
+    return Mix(h);
+  }
+
+  // Spreads the bits so keys that only differ in the low bits do not cluster
+  private static int Mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
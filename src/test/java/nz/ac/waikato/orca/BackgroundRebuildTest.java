@@ -0,0 +1,103 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BackgroundRebuildTest {
+
+	/**
+	 * Adds the input to the current value, the first build waits until it is
+	 * let go and a negative input fails
+	 */
+	private static class Adder extends BackgroundRebuild<Integer, Integer> {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release;
+		final List<Integer> built = Collections.synchronizedList(new ArrayList<Integer>());
+
+		Adder(boolean hold) {
+			super("BackgroundRebuildTest");
+			release = new CountDownLatch(hold ? 1 : 0);
+			set(0);
+		}
+
+		@Override
+		protected Integer build(Integer current, Integer input) throws Exception {
+			started.countDown();
+			release.await();
+			if (input < 0)
+				throw new Exception("Negative input");
+			built.add(input);
+			return current + input;
+		}
+	}
+
+	private static void waitForBuilds(Adder adder) throws InterruptedException {
+		long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (adder.isPending() && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+		assertFalse(adder.isPending());
+	}
+
+	@Test(timeout = 20000)
+	public void testOnlyTheLatestInputIsBuilt() throws Exception {
+		Adder adder = new Adder(true);
+		try {
+			adder.submit(1);
+			assertTrue(adder.started.await(10, TimeUnit.SECONDS));
+			// These arrive while the first build is held
+			adder.submit(2);
+			adder.submit(3);
+			adder.submit(4);
+			assertEquals(0, (int) adder.get());
+			assertTrue(adder.isPending());
+			adder.release.countDown();
+			waitForBuilds(adder);
+			assertEquals(2, adder.built.size());
+			assertEquals(4, (int) adder.built.get(1));
+			assertEquals(5, (int) adder.get());
+		} finally {
+			adder.close();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testFailedBuildKeepsTheValue() throws Exception {
+		Adder adder = new Adder(false);
+		try {
+			assertNull(adder.getLastError());
+			adder.submit(-1);
+			waitForBuilds(adder);
+			assertEquals(0, (int) adder.get());
+			assertTrue(adder.getLastError() != null);
+		} finally {
+			adder.close();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testSubmitAfterCloseMakesANewThread() throws Exception {
+		Adder adder = new Adder(false);
+		try {
+			adder.submit(1);
+			waitForBuilds(adder);
+			adder.close();
+			adder.submit(2);
+			waitForBuilds(adder);
+			assertEquals(3, (int) adder.get());
+		} finally {
+			adder.close();
+		}
+	}
+
+}
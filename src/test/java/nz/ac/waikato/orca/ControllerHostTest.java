@@ -0,0 +1,124 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ControllerHostTest {
+
+	private static final long WAIT = TimeUnit.SECONDS.toMillis(10);
+
+	private static Controller controller(long runtime) throws Exception {
+		return new Controller(null, new MeasureNull(5, TimeUnit.MILLISECONDS), null, runtime, TimeUnit.MILLISECONDS,
+				1);
+	}
+
+	/**
+	 * Waits until every controller has run the number of ticks or the wait runs
+	 * out
+	 */
+	private static boolean waitForTicks(Controller[] controllers, long ticks) throws InterruptedException {
+		long end = System.currentTimeMillis() + WAIT;
+		for (Controller controller : controllers) {
+			while (controller.getTotalTicks() < ticks) {
+				if (System.currentTimeMillis() > end)
+					return false;
+				Thread.sleep(5);
+			}
+		}
+		return true;
+	}
+
+	@Test(timeout = 20000)
+	public void testRunsManyControllersOnFewThreads() throws Exception {
+		ControllerHost host = new ControllerHost(2);
+		Controller[] controllers = new Controller[6];
+		for (int i = 0; i < controllers.length; i++) {
+			controllers[i] = controller(-1);
+			host.start(controllers[i], false);
+		}
+		assertEquals(controllers.length, host.getNumberOfControllers());
+		assertTrue(waitForTicks(controllers, 5));
+		host.shutdown();
+		assertEquals(0, host.getNumberOfControllers());
+		for (Controller controller : controllers) {
+			assertFalse(controller.isRunning());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testStopEndsTheTicks() throws Exception {
+		ControllerHost host = new ControllerHost(1);
+		Controller stopped = controller(-1);
+		Controller running = controller(-1);
+		host.start(stopped, false);
+		host.start(running, false);
+		assertTrue(waitForTicks(new Controller[] { stopped, running }, 3));
+		stopped.stop();
+		assertEquals(1, host.getNumberOfControllers());
+		long ticks = stopped.getTotalTicks();
+		long runningTicks = running.getTotalTicks();
+		assertTrue(waitForTicks(new Controller[] { running }, runningTicks + 5));
+		assertEquals(ticks, stopped.getTotalTicks());
+		host.shutdown();
+	}
+
+	@Test(timeout = 20000)
+	public void testRuntimeStopsTheController() throws Exception {
+		ControllerHost host = new ControllerHost(1);
+		Controller controller = controller(50);
+		host.start(controller, false);
+		long end = System.currentTimeMillis() + WAIT;
+		while (controller.isRunning() && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		assertFalse(controller.isRunning());
+		assertEquals(0, host.getNumberOfControllers());
+		host.shutdown();
+	}
+
+	@Test
+	public void testSharedExecutorIsNotShutdown() throws Exception {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			ControllerHost host = new ControllerHost(executor);
+			host.start(controller(-1), false);
+			host.shutdown();
+			assertEquals(0, host.getNumberOfControllers());
+			assertFalse(executor.isShutdown());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsStartAfterShutdown() throws Exception {
+		ControllerHost host = new ControllerHost(1);
+		host.shutdown();
+		host.start(controller(-1), false);
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsARunningController() throws Exception {
+		ControllerHost host = new ControllerHost(1);
+		Controller controller = controller(-1);
+		host.start(controller, false);
+		try {
+			host.start(controller, false);
+		} finally {
+			host.shutdown();
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsNoThreads() throws Exception {
+		new ControllerHost(0);
+	}
+
+}
@@ -0,0 +1,104 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ControllerLQRTest {
+
+	private static final double[][] A = { { 0.1, 0 }, { 0, 0.1 } };
+	private static final double[][] B = { { 0.5 }, { 0.1 } };
+	private static final double[][] C = { { 1, 0 }, { 0, 1 } };
+	private static final double[][] D = { { 0 }, { 0 } };
+	// Only the CPU has a setpoint
+	private static final double[][] Q = { { 1, 0 }, { 0, 0 } };
+	private static final double[][] R = { { 1 } };
+	private static final double CPUSETPOINT = 40;
+
+	private static ParameterInteger hash() {
+		return new ParameterInteger(100, 10000, 1, "Hash");
+	}
+
+	private static ControllerLQR lqr(double[][] b, ParameterInteger hash) throws Exception {
+		return new ControllerLQR(A, b, C, D, Q, R, new double[] { 0, 0 }, new double[] { hash.getDouble() },
+				new int[] { hash.getID() });
+	}
+
+	/**
+	 * Runs the controller against the plant for ten minutes of virtual time
+	 *
+	 * @return - The CPU measured on the last tick
+	 */
+	private static double run(ControllerLQR lqr, ParameterInteger hash) throws Exception {
+		ParameterInterface<?>[] parameters = { hash };
+		MeasureSimulation plant = new MeasureSimulation(A, B, parameters, 1, TimeUnit.SECONDS, CPUSETPOINT, null);
+		Controller controller = new Controller(lqr, plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		controller.simulate(10, TimeUnit.MINUTES);
+		return plant.getMeasurements()[ModelLQR.CPU];
+	}
+
+	@Test
+	public void testKalmanFilterTracksTheSetpoint() throws Exception {
+		ParameterInteger hash = hash();
+		ControllerLQR lqr = lqr(B, hash);
+		lqr.setKalmanFilter(0.01, 0.01);
+		double cpu = run(lqr, hash);
+		// Hash is an integer so the controller stops once a step rounds to nothing
+		assertEquals(CPUSETPOINT, cpu, CPUSETPOINT * 0.05);
+		assertTrue(hash.getDouble() > 100);
+	}
+
+	@Test
+	public void testKalmanFilterCorrectsTheModelError() throws Exception {
+		double[][] wrongB = { { 0.4 }, { 0.1 } };
+		ParameterInteger hash = hash();
+		double withoutFilter = Math.abs(run(lqr(wrongB, hash), hash) - CPUSETPOINT);
+		hash = hash();
+		ControllerLQR lqr = lqr(wrongB, hash);
+		lqr.setKalmanFilter(0.01, 0.01);
+		double withFilter = Math.abs(run(lqr, hash) - CPUSETPOINT);
+		assertTrue(withFilter < withoutFilter);
+	}
+
+	@Test
+	public void testKalmanGainIsRemoved() throws Exception {
+		ParameterInteger hash = hash();
+		ControllerLQR lqr = lqr(B, hash);
+		lqr.setKalmanFilter(0.01, 0.01);
+		assertEquals(2, lqr.getKalmanGain().length);
+		lqr.removeKalmanFilter();
+		assertNull(lqr.getKalmanGain());
+	}
+
+	@Test(expected = Exception.class)
+	public void testKalmanFilterRejectsTheWrongSize() throws Exception {
+		lqr(B, hash()).setKalmanFilter(new double[][] { { 1 } }, new double[][] { { 1, 0 }, { 0, 1 } });
+	}
+
+	@Test(expected = Exception.class)
+	public void testKalmanFilterRejectsAnAsymmetricCovariance() throws Exception {
+		lqr(B, hash()).setKalmanFilter(new double[][] { { 1, 0.5 }, { 0, 1 } }, new double[][] { { 1, 0 }, { 0, 1 } });
+	}
+
+	@Test(expected = Exception.class)
+	public void testKalmanFilterRejectsAnIndefiniteProcessNoise() throws Exception {
+		lqr(B, hash()).setKalmanFilter(new double[][] { { 1, 2 }, { 2, 1 } }, new double[][] { { 1, 0 }, { 0, 1 } });
+	}
+
+	@Test(expected = Exception.class)
+	public void testKalmanFilterRejectsASingularMeasurementNoise() throws Exception {
+		lqr(B, hash()).setKalmanFilter(new double[][] { { 1, 0 }, { 0, 1 } }, new double[][] { { 1, 1 }, { 1, 1 } });
+	}
+
+	@Test
+	public void testKalmanFilterAllowsAStateWithoutNoise() throws Exception {
+		ControllerLQR lqr = lqr(B, hash());
+		lqr.setKalmanFilter(new double[][] { { 0.01, 0 }, { 0, 0 } }, new double[][] { { 0.01, 0 }, { 0, 0.01 } });
+		assertEquals(0, lqr.getKalmanGain()[1][1], 1e-9);
+	}
+}
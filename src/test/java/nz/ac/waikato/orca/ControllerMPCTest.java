@@ -0,0 +1,80 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ControllerMPCTest {
+
+	private static final double[][] A = { { 0, 0 }, { 0, 0 } };
+	private static final double[][] B = { { 0.5 }, { 0.1 } };
+	// Only the CPU has a setpoint
+	private static final double[][] Q = { { 1, 0 }, { 0, 0 } };
+	private static final double[][] R = { { 0.1 } };
+	private static final double MAXCHANGE = 0.2;
+
+	private final ParameterInteger _hash = new ParameterInteger(100, 10000, 1, "Hash");
+	private final ParameterInterface<?>[] _parameters = { _hash };
+
+	private ControllerMPC mpc() throws Exception {
+		return new ControllerMPC(A, B, Q, R, new double[] { 0, 0 }, new double[] { _hash.getDouble() },
+				new int[] { _hash.getID() }, 5, MAXCHANGE);
+	}
+
+	private Controller controller(ControllerMPC mpc, MeasureSimulation plant) throws Exception {
+		Controller controller = new Controller(mpc, plant, _parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		return controller;
+	}
+
+	@Test
+	public void testTracksTheSetpoint() throws Exception {
+		MeasureSimulation plant = new MeasureSimulation(B, _parameters, 1, TimeUnit.SECONDS, 40d, null);
+		controller(mpc(), plant).simulate(5, TimeUnit.MINUTES);
+		assertEquals(40, plant.getMeasurements()[ModelLQR.CPU], 40 * 0.05);
+	}
+
+	@Test
+	public void testFollowsASetpointChange() throws Exception {
+		MeasureSimulation plant = new MeasureSimulation(B, _parameters, 1, TimeUnit.SECONDS, 40d, null);
+		Controller controller = controller(mpc(), plant);
+		controller.simulate(5, TimeUnit.MINUTES);
+		plant.setSetpoint(ModelLQR.CPU, 20d);
+		controller.simulate(5, TimeUnit.MINUTES);
+		assertEquals(20, plant.getMeasurements()[ModelLQR.CPU], 20 * 0.05);
+	}
+
+	@Test
+	public void testMovesAreRateLimited() throws Exception {
+		MeasureSimulation plant = new MeasureSimulation(B, _parameters, 1, TimeUnit.SECONDS, 1000d, null);
+		Controller controller = controller(mpc(), plant);
+		double last = _hash.getDouble();
+		for (int i = 0; i < 30; i++) {
+			// One tick at a time
+			controller.simulate(1, TimeUnit.SECONDS);
+			double value = _hash.getDouble();
+			// Hash is rounded to an integer after the move
+			assertTrue(value <= Math.ceil(last * (1 + MAXCHANGE)));
+			assertTrue(value >= last);
+			last = value;
+		}
+		assertTrue(last > 100);
+	}
+
+	@Test
+	public void testStaysWithinTheBounds() throws Exception {
+		// The setpoint can not be reached so Hash is held at its most
+		MeasureSimulation plant = new MeasureSimulation(B, _parameters, 1, TimeUnit.SECONDS, 1e6, null);
+		controller(mpc(), plant).simulate(5, TimeUnit.MINUTES);
+		assertEquals(10000, _hash.getDouble(), 0);
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsAnInvalidHorizon() throws Exception {
+		new ControllerMPC(A, B, Q, R, new double[] { 0, 0 }, new double[] { 100 }, new int[] { _hash.getID() }, 0,
+				MAXCHANGE);
+	}
+}
@@ -0,0 +1,134 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ControllerPIDTest {
+
+	private static final double SETPOINT = 50;
+
+	/**
+	 * A first order plant with a two tick delay, the output settles at a
+	 * hundredth of Hash and starts at the setpoint
+	 */
+	private static MeasureSimulation plant(ParameterInterface<?>[] parameters) throws Exception {
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.8 } }, new double[][] { { 0.002 } },
+				new double[][] { { 1 } }, new double[][] { { 0 } }, new double[] { SETPOINT }, parameters, 1,
+				TimeUnit.SECONDS, new Double[] { SETPOINT });
+		plant.setDelay(2);
+		return plant;
+	}
+
+	private static ControllerPID tune(ParameterInteger hash, int controlUpdates) throws Exception {
+		ParameterInterface<?>[] parameters = { hash };
+		ControllerPID pid = new ControllerPID(2, 1, 0, 10);
+		pid.startAutoTune(0, 500, 1, 1000);
+		Controller controller = new Controller(pid, plant(parameters), parameters, 1);
+		controller.setNumberOfControlUpdates(controlUpdates);
+		controller.setClock(new VirtualControlClock());
+		controller.simulate(10, TimeUnit.MINUTES);
+		return pid;
+	}
+
+	@Test
+	public void testAutoTuneFindsTheOscillation() throws Exception {
+		ParameterInteger hash = new ParameterInteger(5000, 10000, 1, "Hash");
+		ControllerPID pid = tune(hash, 1);
+		assertFalse(pid.isAutoTuning());
+		assertTrue(pid.getUltimateGain() > 0);
+		assertTrue(pid.getUltimatePeriod() > 2);
+		assertTrue(pid.getUltimatePeriod() < 60);
+		assertTrue(pid.getKd() > 0);
+		assertEquals(0, pid.getKi(), 0);
+		// The parameter is put back once the tune is done and stays near where the
+		// plant is at its setpoint
+		assertEquals(5000, hash.getDouble(), 50);
+	}
+
+	@Test
+	public void testAutoTunePeriodDoesNotDependOnTheControlUpdates() throws Exception {
+		double period = tune(new ParameterInteger(5000, 10000, 1, "Hash"), 1).getUltimatePeriod();
+		double morePeriod = tune(new ParameterInteger(5000, 10000, 1, "Hash"), 3).getUltimatePeriod();
+		assertEquals(period, morePeriod, period * 0.2);
+	}
+
+	@Test
+	public void testTunedGainsTrackASetpointChange() throws Exception {
+		ParameterInteger hash = new ParameterInteger(5000, 10000, 1, "Hash");
+		ControllerPID tuned = tune(hash, 1);
+		ParameterInterface<?>[] parameters = { hash };
+		ControllerPID pid = new ControllerPID(tuned.getKp(), tuned.getKi(), tuned.getKd(), 10);
+		MeasureSimulation plant = plant(parameters);
+		plant.setSetpoint(0, 30d);
+		Controller controller = new Controller(pid, plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		controller.simulate(20, TimeUnit.MINUTES);
+		assertEquals(30, plant.getMeasurements()[0], 30 * 0.05);
+	}
+
+	@Test
+	public void testAutoTuneWithoutAnOscillationKeepsTheGains() throws Exception {
+		ParameterInteger hash = new ParameterInteger(5000, 10000, 1, "Hash");
+		ParameterInterface<?>[] parameters = { hash };
+		ControllerPID pid = new ControllerPID(2, 1, 0, 10);
+		// The relay is too small to move the output past the hysteresis
+		pid.startAutoTune(0, 1, 10, 100);
+		Controller controller = new Controller(pid, plant(parameters), parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		controller.simulate(5, TimeUnit.MINUTES);
+		assertFalse(pid.isAutoTuning());
+		assertTrue(Double.isNaN(pid.getUltimateGain()));
+		assertEquals(2, pid.getKp(), 0);
+		assertEquals(1, pid.getKi(), 0);
+	}
+
+	@Test(expected = Exception.class)
+	public void testAutoTuneRejectsAnInvalidRelay() throws Exception {
+		new ControllerPID(2, 1, 0, 10).startAutoTune(0, 0, 1, 100);
+	}
+
+	/**
+	 * Drives the controller with a setpoint that steps between 20 and 40 so the
+	 * parameter keeps moving, the measurement is Hash over 100 times the
+	 * sensitivity, which doubles half way
+	 *
+	 * @return - The gain of Hash before and after the sensitivity doubled
+	 */
+	private static double[] gainsAcrossASensitivityChange(ControllerPID pid) {
+		ParameterInteger hash = new ParameterInteger(1000, 10000, 1, "Hash");
+		ParameterInterface<?>[] parameters = { hash };
+		double[] gains = new double[2];
+		double sensitivity = 1;
+		for (int tick = 0; tick < 1200; tick++) {
+			if (tick == 600) {
+				gains[0] = pid.getActuationGain(0, hash.getID());
+				sensitivity = 2;
+			}
+			Setpoints setpoints = new Setpoints(new Double[] { ((tick / 20) % 2 == 0) ? 20d : 40d });
+			pid.evaluate(parameters, new double[] { sensitivity * hash.getDouble() / 100 }, setpoints, 1);
+		}
+		gains[1] = pid.getActuationGain(0, hash.getID());
+		return gains;
+	}
+
+	@Test
+	public void testGainsAreKeptByDefault() throws Exception {
+		double[] gains = gainsAcrossASensitivityChange(new ControllerPID(2, 1, 0, 10));
+		assertEquals(gains[0], gains[1], 0);
+	}
+
+	@Test
+	public void testAdaptiveGainFollowsTheSensitivity() throws Exception {
+		ControllerPID pid = new ControllerPID(2, 1, 0, 10);
+		pid.setAdaptiveGains(true);
+		double[] gains = gainsAcrossASensitivityChange(pid);
+		// A single parameter keeps the loop gain by halving its gain
+		assertEquals(gains[0] / 2, gains[1], gains[0] * 0.05);
+	}
+
+}
@@ -0,0 +1,146 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ControllerSnapshotTest {
+
+	private File _file;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("snapshot", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	private static void assertSameSection(ControllerSnapshot expected, ControllerSnapshot actual, String name) {
+		assertTrue(name, actual.has(name));
+		double[][] expectedValues = expected.get(name);
+		double[][] actualValues = actual.get(name);
+		assertEquals(name, expectedValues.length, actualValues.length);
+		for (int i = 0; i < expectedValues.length; i++) {
+			assertArrayEquals(name, expectedValues[i], actualValues[i], 0);
+		}
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		ControllerSnapshot snapshot = new ControllerSnapshot();
+		snapshot.put(ControllerSnapshot.B, new double[][] { { 0.5, 0.2 }, { 0.1 } });
+		snapshot.put(ControllerSnapshot.STATE, new double[] { 1, -2, Double.NaN });
+		snapshot.put("empty", new double[0][]);
+		snapshot.write(_file);
+		ControllerSnapshot read = ControllerSnapshot.read(_file);
+		assertEquals(snapshot.getCreatedMillis(), read.getCreatedMillis());
+		assertSameSection(snapshot, read, ControllerSnapshot.B);
+		assertSameSection(snapshot, read, ControllerSnapshot.STATE);
+		assertSameSection(snapshot, read, "empty");
+		assertFalse(read.has(ControllerSnapshot.INPUT));
+		assertNull(read.getRow(ControllerSnapshot.INPUT));
+	}
+
+	@Test
+	public void testPutCopiesTheValues() {
+		ControllerSnapshot snapshot = new ControllerSnapshot();
+		double[] values = { 1, 2 };
+		snapshot.put(ControllerSnapshot.STATE, values);
+		values[0] = 5;
+		assertEquals(1, snapshot.getRow(ControllerSnapshot.STATE)[0], 0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadRejectsAFileThatIsNotASnapshot() throws Exception {
+		FileOutputStream out = new FileOutputStream(_file);
+		try {
+			out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		} finally {
+			out.close();
+		}
+		ControllerSnapshot.read(_file);
+	}
+
+	/**
+	 * The last snapshot of a run warm starts a new controller with the same state
+	 */
+	@Test
+	public void testControllerRoundTrip() throws Exception {
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash") };
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.5 }, { 0.1 } }, parameters, 1,
+				TimeUnit.SECONDS, 20d, null);
+		Controller controller = new Controller(new ControllerPID(1, 0.5, 0, 10), plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		controller.getModel().UpdateIntercepts(new double[] { 0.5, 4 });
+		controller.setSnapshotFile(_file, 10, TimeUnit.SECONDS);
+		controller.simulate(1, TimeUnit.MINUTES);
+		ControllerSnapshot written = ControllerSnapshot.read(_file);
+		ControllerSnapshot taken = controller.takeSnapshot();
+		assertArrayEquals(new double[] { 0.5, 4 }, written.getRow(ControllerSnapshot.INTERCEPT), 0);
+		assertSameSection(taken, written, "pid.integral");
+		assertSameSection(taken, written, "pid.integralHistory");
+
+		Controller restored = new Controller(new ControllerPID(1, 0.5, 0, 10), plant, parameters, 1);
+		restored.restoreSnapshot(written);
+		ControllerSnapshot restoredSnapshot = restored.takeSnapshot();
+		assertSameSection(written, restoredSnapshot, ControllerSnapshot.INTERCEPT);
+		assertSameSection(written, restoredSnapshot, "pid.gains");
+		assertSameSection(written, restoredSnapshot, "pid.error");
+		assertSameSection(written, restoredSnapshot, "pid.integral");
+		assertSameSection(written, restoredSnapshot, "pid.integralHistory");
+		assertSameSection(written, restoredSnapshot, "pid.integralHistoryPlace");
+	}
+
+	@Test
+	public void testModelControllerRoundTrip() throws Exception {
+		ParameterInteger hash = new ParameterInteger(100, 10000, 1, "Hash");
+		double[][] A = { { 0, 0 }, { 0, 0 } };
+		double[][] Q = { { 1, 0 }, { 0, 0 } };
+		double[][] R = { { 0.1 } };
+		ControllerMPC mpc = new ControllerMPC(A, new double[][] { { 0.5 }, { 0.1 } }, Q, R, new double[] { 0, 0 },
+				new double[] { 100 }, new int[] { hash.getID() }, 5, 0.2);
+		ParameterInterface<?>[] parameters = { hash };
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.5 }, { 0.1 } }, parameters, 1,
+				TimeUnit.SECONDS, 40d, null);
+		Controller controller = new Controller(mpc, plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		controller.simulate(10, TimeUnit.SECONDS);
+		ControllerSnapshot snapshot = controller.takeSnapshot();
+		snapshot.write(_file);
+		ControllerSnapshot read = ControllerSnapshot.read(_file);
+
+		// The B given is replaced by the one in the snapshot
+		ControllerMPC restored = new ControllerMPC(A, new double[][] { { 1 }, { 1 } }, Q, R, new double[] { 0, 0 },
+				new double[] { 100 }, new int[] { hash.getID() }, 5, 0.2, read);
+		ControllerSnapshot restoredSnapshot = new ControllerSnapshot();
+		restored.saveState(restoredSnapshot);
+		assertSameSection(snapshot, restoredSnapshot, ControllerSnapshot.B);
+		assertSameSection(snapshot, restoredSnapshot, ControllerSnapshot.STATE);
+		assertSameSection(snapshot, restoredSnapshot, ControllerSnapshot.INPUT);
+		assertEquals(hash.getDouble(), restoredSnapshot.getRow(ControllerSnapshot.INPUT)[0], 1e-9);
+	}
+
+	@Test(expected = Exception.class)
+	public void testRestoreRejectsASnapshotThatDoesNotMatch() throws Exception {
+		ParameterInteger hash = new ParameterInteger(100, 10000, 1, "Hash");
+		ControllerSnapshot snapshot = new ControllerSnapshot();
+		snapshot.put(ControllerSnapshot.B, new double[][] { { 1, 2, 3 } });
+		new ControllerMPC(new double[][] { { 0 } }, new double[][] { { 0.5 } }, new double[][] { { 1 } },
+				new double[][] { { 1 } }, new double[] { 0 }, new double[] { 100 }, new int[] { hash.getID() }, 5,
+				0.2).loadState(snapshot);
+	}
+}
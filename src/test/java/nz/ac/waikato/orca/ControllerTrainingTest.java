@@ -0,0 +1,67 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import nz.ac.waikato.orca.ml.ExperimentDesign;
+
+public class ControllerTrainingTest {
+
+	private static final double[][] A = { { 0, 0 }, { 0, 0 } };
+	private static final double[][] B = { { 0.5, 0.2 }, { 0.1, 0.3 } };
+	private static final double[][] C = { { 1, 0 }, { 0, 1 } };
+	private static final double[][] D = { { 0, 0 }, { 0, 0 } };
+	private static final double[][] Q = { { 1, 0 }, { 0, 1 } };
+	private static final double[][] R = { { 1, 0 }, { 0, 1 } };
+
+	private static Controller controller(ParameterInterface<?>[] parameters) throws Exception {
+		ControllerLQR lqr = new ControllerLQR(A, B, C, D, Q, R, new double[] { 0, 0 },
+				new double[] { parameters[0].getDouble(), parameters[1].getDouble() },
+				new int[] { parameters[0].getID(), parameters[1].getID() });
+		MeasureSimulation plant = new MeasureSimulation(B, parameters, 1, TimeUnit.SECONDS, 40.0, null);
+		Controller controller = new Controller(lqr, plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		return controller;
+	}
+
+	@Test
+	public void testTrainingSettlesOnThePlantIntercepts() throws Exception {
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash"),
+				new ParameterInteger(10, 1000, 1, "Sleep") };
+		Controller controller = controller(parameters);
+		// Start away from the plant so a fit that is offset by the current
+		// intercepts would keep moving them
+		controller.getModel().UpdateIntercepts(new double[] { 1.5, 3.0 });
+		controller.setTraining(ExperimentDesign.Type.SOBOL, 30, TimeUnit.MINUTES);
+		controller.simulate(30, TimeUnit.MINUTES);
+		assertFalse(controller.isTraining());
+		// The model is refit from the fourth sample and needs two fits in a row
+		// that agree before it stops
+		assertTrue(controller.getTrainingSamples() >= parameters.length + 4);
+		double[] expected = new ModelLQR().GetIntercepts();
+		double[] intercepts = controller.getModel().GetIntercepts();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], intercepts[i], 1e-6);
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testTrainingRejectsAParameterWithoutBounds() throws Exception {
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash"),
+				new ParameterInteger(10, "Sleep") };
+		controller(parameters).setTraining(ExperimentDesign.Type.SOBOL, 30, TimeUnit.MINUTES);
+	}
+
+	@Test(expected = Exception.class)
+	public void testTrainingRejectsAFloatParameter() throws Exception {
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash"),
+				new ParameterFloat(0.5f, 1, 0, "Ratio") };
+		controller(parameters).setTraining(ExperimentDesign.Type.SOBOL, 30, TimeUnit.MINUTES);
+	}
+
+}
@@ -0,0 +1,146 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.OperatingSystemMXBean;
+
+public class MeasureProcfsTest {
+
+	private static final long CLOCKTICKS = 100;
+	private static final long PAGESIZE = 4096;
+
+	private File _root;
+	private File _proc;
+	private File _cgroupRoot;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = Files.createTempDirectory("procfs").toFile();
+		_proc = new File(_root, "proc");
+		_cgroupRoot = new File(_root, "cgroup");
+		assertTrue(_proc.mkdir());
+		assertTrue(_cgroupRoot.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		delete(_root);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Writes a stat where the command name holds spaces and brackets
+	 */
+	private void writeStat(long utime, long stime) throws IOException {
+		write(new File(_proc, "stat"),
+				"1234 (java (main) x) S 1 1234 1234 0 -1 4194560 100 0 0 0 " + utime + " " + stime + " 0 0 20 0\n");
+	}
+
+	/**
+	 * Writes a cgroup with the given quota and memory limit
+	 */
+	private void writeCgroup(String quota, String limit) throws IOException {
+		write(new File(_proc, "cgroup"), "0::/app.slice/test\n");
+		File cgroup = new File(_cgroupRoot, "app.slice/test");
+		assertTrue(cgroup.mkdirs());
+		write(new File(cgroup, "cpu.stat"), "usage_usec 2500000\nuser_usec 2000000\nsystem_usec 500000\n");
+		write(new File(cgroup, "cpu.max"), quota + " 100000\n");
+		write(new File(cgroup, "memory.current"), "1048576\n");
+		write(new File(cgroup, "memory.max"), limit + "\n");
+	}
+
+	private MeasureProcfs measure() throws Exception {
+		return new MeasureProcfs(null, null, CLOCKTICKS, PAGESIZE, _proc, _cgroupRoot);
+	}
+
+	@Test
+	public void testReadsProcfs() throws Exception {
+		writeStat(200, 100);
+		write(new File(_proc, "statm"), "5000 2500 100 10 0 400 0\n");
+		MeasureProcfs measure = measure();
+		try {
+			assertFalse(measure.isCgroupCPU());
+			assertFalse(measure.isCgroupMemory());
+			long total = ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+					.getTotalPhysicalMemorySize();
+			assertEquals(100.0 * 2500 * PAGESIZE / total, measure.measureMemory(), 1e-12);
+			// The first measure only sets the starting CPU time
+			assertEquals(0, measure.measureCPU(), 0);
+			writeStat(300, 150);
+			assertTrue(measure.measureCPU() > 0);
+		} finally {
+			measure.close();
+		}
+	}
+
+	@Test
+	public void testReadsTheCgroupWithLimits() throws Exception {
+		writeStat(200, 100);
+		write(new File(_proc, "statm"), "5000 2500\n");
+		writeCgroup("50000", "4194304");
+		MeasureProcfs measure = measure();
+		try {
+			assertTrue(measure.isCgroupCPU());
+			assertTrue(measure.isCgroupMemory());
+			assertEquals(25, measure.measureMemory(), 1e-12);
+			assertEquals(0, measure.measureCPU(), 0);
+			write(new File(_cgroupRoot, "app.slice/test/cpu.stat"), "usage_usec 3500000\nuser_usec 3000000\n");
+			assertTrue(measure.measureCPU() > 0);
+		} finally {
+			measure.close();
+		}
+	}
+
+	@Test
+	public void testIgnoresTheCgroupWithoutLimits() throws Exception {
+		writeStat(200, 100);
+		write(new File(_proc, "statm"), "5000 2500\n");
+		writeCgroup("max", "max");
+		MeasureProcfs measure = measure();
+		try {
+			assertFalse(measure.isCgroupCPU());
+			assertFalse(measure.isCgroupMemory());
+		} finally {
+			measure.close();
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsAnInvalidMemoryLimit() throws Exception {
+		writeStat(200, 100);
+		write(new File(_proc, "statm"), "5000 2500\n");
+		writeCgroup("max", "unlimited");
+		measure();
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsMissingProcfs() throws Exception {
+		measure();
+	}
+
+}
@@ -0,0 +1,80 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MeasureSimulationTest {
+
+	private final ParameterInteger _hash = new ParameterInteger(100, 10000, 1, "Hash");
+	private final ParameterInterface<?>[] _parameters = { _hash };
+
+	/**
+	 * y = Hash with no dynamics so the output is the parameter of the last tick
+	 */
+	private MeasureSimulation passThrough() throws Exception {
+		return new MeasureSimulation(new double[][] { { 0 } }, new double[][] { { 1 } }, new double[][] { { 1 } },
+				new double[][] { { 0 } }, new double[] { 0 }, _parameters, 1, TimeUnit.SECONDS, null);
+	}
+
+	@Test
+	public void testDelayHoldsTheOutputBack() throws Exception {
+		MeasureSimulation plant = passThrough();
+		plant.setDelay(2);
+		double[] outputs = new double[6];
+		for (int i = 0; i < outputs.length; i++) {
+			_hash.set((double) (100 * (i + 1)));
+			plant.measure();
+			outputs[i] = plant.getMeasurements()[0];
+		}
+		// The output of tick i is the Hash of tick i - 1 another two ticks later
+		assertArrayEquals(new double[] { 0, 0, 0, 100, 200, 300 }, outputs, 0);
+	}
+
+	@Test
+	public void testNoiseIsRepeatable() throws Exception {
+		MeasureSimulation first = passThrough();
+		MeasureSimulation second = passThrough();
+		first.setNoise(1, 42);
+		second.setNoise(1, 42);
+		for (int i = 0; i < 10; i++) {
+			first.measure();
+			second.measure();
+			assertArrayEquals(first.getMeasurements(), second.getMeasurements(), 0);
+		}
+	}
+
+	@Test
+	public void testModelPlantDecodesTheOutput() throws Exception {
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.5 }, { 0.1 } }, _parameters, 1,
+				TimeUnit.SECONDS, 20d, null);
+		plant.measure();
+		plant.measure();
+		ModelLQR model = new ModelLQR();
+		double encoded = ModelLQR.encodeParameter(100);
+		assertEquals(model.decodeMeasurement(0.5 * encoded, ModelLQR.CPU), plant.getMeasurements()[ModelLQR.CPU],
+				1e-9);
+		assertEquals(model.decodeMeasurement(0.1 * encoded, ModelLQR.MEMORY),
+				plant.getMeasurements()[ModelLQR.MEMORY], 1e-9);
+		assertEquals(model.encodeMeasurement(20, ModelLQR.CPU), plant.getSetpoints(1, 0).get(ModelLQR.CPU), 1e-12);
+	}
+
+	@Test
+	public void testSimulateStepsTheVirtualClock() throws Exception {
+		VirtualControlClock clock = new VirtualControlClock();
+		Controller controller = new Controller(new ControllerNULL(), passThrough(), _parameters, 1);
+		controller.setClock(clock);
+		controller.simulate(1, TimeUnit.HOURS);
+		assertEquals(3600, controller.getTotalTicks());
+		assertEquals(TimeUnit.HOURS.toNanos(1), clock.nanoTime());
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsMatricesThatDoNotMatch() throws Exception {
+		new MeasureSimulation(new double[][] { { 0.5 }, { 0.1 }, { 1 } }, _parameters, 1, TimeUnit.SECONDS, null,
+				null);
+	}
+}
@@ -0,0 +1,135 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OverrunMonitorTest {
+
+	private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private static OverrunMonitor monitor(OverrunMonitor.Policy policy) throws Exception {
+		OverrunMonitor monitor = new OverrunMonitor();
+		monitor.setPolicy(policy);
+		return monitor;
+	}
+
+	@Test
+	public void testTickOnTime() throws Exception {
+		OverrunMonitor monitor = monitor(OverrunMonitor.Policy.SKIP);
+		assertEquals(INTERVAL, monitor.record(0, INTERVAL / 2, INTERVAL, INTERVAL, 1));
+		assertEquals(1, monitor.getTicks());
+		assertEquals(0, monitor.getOverruns());
+		assertEquals(INTERVAL / 2, monitor.getMaxTickNanos());
+		// Half the interval is in the bucket up to 0.75
+		assertEquals(1, monitor.getHistogram()[3]);
+	}
+
+	@Test
+	public void testSkipMovesToTheNextDeadline() throws Exception {
+		OverrunMonitor monitor = monitor(OverrunMonitor.Policy.SKIP);
+		// Finishes two and a half intervals after the deadline
+		long deadline = monitor.record(0, INTERVAL * 7 / 2, INTERVAL, INTERVAL, 1);
+		assertEquals(INTERVAL * 4, deadline);
+		assertEquals(1, monitor.getOverruns());
+		assertEquals(3, monitor.getSkippedTicks());
+		assertEquals(0, monitor.getCaughtUpTicks());
+		assertEquals(1, monitor.getHistogram()[OverrunMonitor.BUCKETBOUNDS.length - 1]);
+	}
+
+	@Test
+	public void testCatchUpKeepsTheDeadline() throws Exception {
+		OverrunMonitor monitor = monitor(OverrunMonitor.Policy.CATCH_UP);
+		assertEquals(INTERVAL, monitor.record(0, INTERVAL * 7 / 2, INTERVAL, INTERVAL, 1));
+		assertEquals(1, monitor.getCaughtUpTicks());
+		assertEquals(0, monitor.getSkippedTicks());
+		// Too far behind to catch up so the schedule is reset
+		long deadline = monitor.record(0, INTERVAL * 20, INTERVAL, INTERVAL, 1);
+		assertTrue(deadline > INTERVAL * 20);
+		assertEquals(1, monitor.getCaughtUpTicks());
+		assertEquals(20, monitor.getSkippedTicks());
+	}
+
+	@Test
+	public void testDegradeLowersAndRecoversTheControlUpdates() throws Exception {
+		OverrunMonitor monitor = monitor(OverrunMonitor.Policy.DEGRADE);
+		monitor.record(0, INTERVAL * 2, INTERVAL, INTERVAL, 4);
+		int updates = monitor.controlUpdates(4, 4, INTERVAL);
+		assertEquals(3, updates);
+		assertEquals(1, monitor.getDegrades());
+		// Quick ticks leave room for another update after a run of them
+		for (int i = 0; i < 9; i++) {
+			monitor.record(0, INTERVAL / 10, INTERVAL, INTERVAL, updates);
+			updates = monitor.controlUpdates(updates, 4, INTERVAL);
+			assertEquals(3, updates);
+		}
+		monitor.record(0, INTERVAL / 10, INTERVAL, INTERVAL, updates);
+		assertEquals(4, monitor.controlUpdates(updates, 4, INTERVAL));
+		assertEquals(1, monitor.getRecoveries());
+	}
+
+	@Test
+	public void testOtherPoliciesKeepTheControlUpdates() throws Exception {
+		OverrunMonitor monitor = monitor(OverrunMonitor.Policy.SKIP);
+		monitor.record(0, INTERVAL * 2, INTERVAL, INTERVAL, 4);
+		assertEquals(4, monitor.controlUpdates(4, 4, INTERVAL));
+		assertEquals(0, monitor.getDegrades());
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsANullPolicy() throws Exception {
+		new OverrunMonitor().setPolicy(null);
+	}
+
+	/**
+	 * Runs a controller whose evaluations take a fifth of the interval on the
+	 * virtual clock, with five control updates every tick overruns
+	 */
+	private static Controller slowController(OverrunMonitor.Policy policy) throws Exception {
+		final VirtualControlClock clock = new VirtualControlClock();
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash") };
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.5 }, { 0.1 } }, parameters, 1,
+				TimeUnit.SECONDS, 20d, null);
+		ControllerInterface slow = new ControllerHead() {
+
+			@Override
+			public boolean evaluate(ParameterInterface<?>[] parameters, double[] measurements, Setpoints setpoints,
+					double dtSec) {
+				clock.advance(250, TimeUnit.MILLISECONDS);
+				return false;
+			}
+
+			@Override
+			public double[] get() {
+				return null;
+			}
+		};
+		Controller controller = new Controller(slow, plant, parameters, 1);
+		controller.setClock(clock);
+		controller.setNumberOfControlUpdates(5);
+		controller.setOverrunPolicy(policy);
+		controller.simulate(2, TimeUnit.MINUTES);
+		return controller;
+	}
+
+	@Test
+	public void testDegradeInController() throws Exception {
+		Controller controller = slowController(OverrunMonitor.Policy.DEGRADE);
+		OverrunMonitor monitor = controller.getOverrunMonitor();
+		assertTrue(monitor.getDegrades() > 0);
+		assertTrue(controller.getNumberOfControlUpdates() < 5);
+		assertEquals(5, controller.getTargetNumberOfControlUpdates());
+	}
+
+	@Test
+	public void testSkipInController() throws Exception {
+		Controller controller = slowController(OverrunMonitor.Policy.SKIP);
+		OverrunMonitor monitor = controller.getOverrunMonitor();
+		assertEquals(monitor.getTicks(), monitor.getOverruns());
+		assertTrue(monitor.getSkippedTicks() >= monitor.getTicks());
+		assertEquals(5, controller.getNumberOfControlUpdates());
+	}
+}
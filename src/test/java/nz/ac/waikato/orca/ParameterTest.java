@@ -0,0 +1,114 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class ParameterTest {
+
+	/**
+	 * Holds the runs until they are asked for so the test decides when the
+	 * listener is called
+	 */
+	private static class QueuedExecutor implements Executor {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			queued.add(command);
+		}
+
+		void runAll() {
+			while (!queued.isEmpty()) {
+				queued.remove(0).run();
+			}
+		}
+	}
+
+	/**
+	 * Keeps each change given to it as the old and new value
+	 */
+	private static class RecordingListener implements ParameterListener {
+		final List<double[]> changes = new ArrayList<double[]>();
+
+		@Override
+		public void parameterChanged(ParameterInterface<?> parameter, double oldValue, double newValue) {
+			changes.add(new double[] { oldValue, newValue });
+		}
+	}
+
+	@Test
+	public void testStartIsClampedToTheMin() {
+		assertEquals(5, new ParameterInteger(-5, 100, 5, "Hash").getAsInt());
+		// Without bounds the min is MIN_VALUE, so the start is clamped to 0
+		assertEquals(0, new ParameterInteger(-5, "Hash").getAsInt());
+	}
+
+	@Test
+	public void testChangesAreCoalesced() {
+		ParameterInteger parameter = new ParameterInteger(10, 100, 0, "Hash");
+		QueuedExecutor executor = new QueuedExecutor();
+		RecordingListener listener = new RecordingListener();
+		parameter.addListener(listener, executor);
+		parameter.set(20);
+		parameter.set(30);
+		parameter.set(40);
+		assertEquals(1, executor.queued.size());
+		executor.runAll();
+		assertEquals(1, listener.changes.size());
+		assertEquals(10, listener.changes.get(0)[0], 0);
+		assertEquals(40, listener.changes.get(0)[1], 0);
+	}
+
+	@Test
+	public void testChangeBackIsNotDelivered() {
+		ParameterInteger parameter = new ParameterInteger(10, 100, 0, "Hash");
+		QueuedExecutor executor = new QueuedExecutor();
+		RecordingListener listener = new RecordingListener();
+		parameter.addListener(listener, executor);
+		parameter.set(20);
+		parameter.set(10);
+		executor.runAll();
+		assertTrue(listener.changes.isEmpty());
+	}
+
+	@Test
+	public void testChangeWhileRunningIsDelivered() {
+		final ParameterInteger parameter = new ParameterInteger(10, 100, 0, "Hash");
+		QueuedExecutor executor = new QueuedExecutor();
+		final RecordingListener recorder = new RecordingListener();
+		parameter.addListener(new ParameterListener() {
+
+			@Override
+			public void parameterChanged(ParameterInterface<?> changed, double oldValue, double newValue) {
+				recorder.parameterChanged(changed, oldValue, newValue);
+				// The run is still scheduled so this change is picked up once it returns
+				if (newValue == 20)
+					parameter.set(30);
+			}
+		}, executor);
+		parameter.set(20);
+		executor.runAll();
+		assertEquals(2, recorder.changes.size());
+		assertEquals(20, recorder.changes.get(1)[0], 0);
+		assertEquals(30, recorder.changes.get(1)[1], 0);
+	}
+
+	@Test
+	public void testRemovedListenerIsNotCalled() {
+		ParameterInteger parameter = new ParameterInteger(10, 100, 0, "Hash");
+		QueuedExecutor executor = new QueuedExecutor();
+		RecordingListener listener = new RecordingListener();
+		parameter.addListener(listener, executor);
+		assertTrue(parameter.removeListener(listener));
+		parameter.set(20);
+		assertTrue(executor.queued.isEmpty());
+		assertTrue(listener.changes.isEmpty());
+	}
+
+}
@@ -0,0 +1,115 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RunRecorderTest {
+
+	private File _file;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("run", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	@Test
+	public void testRecordAndReplay() throws Exception {
+		ParameterInteger hash = new ParameterInteger(5, "Hash");
+		ParameterInteger sleep = new ParameterInteger(7, "Sleep");
+		ParameterInterface<?>[] parameters = { hash, sleep };
+		Setpoints setpoints = new Setpoints(2);
+		// A small chunk so the rows are spread over many mappings
+		RunRecorder recorder = new RunRecorder(_file, 4096);
+		int ticks = 1000;
+		for (int i = 0; i < ticks; i++) {
+			hash.set((double) i);
+			if (i % 2 == 0)
+				setpoints.set(1, 3d);
+			else
+				setpoints.clear(1);
+			recorder.record(i * 500L, new double[] { i, 2 * i }, setpoints, parameters);
+		}
+		assertEquals(ticks, recorder.getRows());
+		recorder.close();
+
+		MeasureReplay replay = new MeasureReplay(_file);
+		try {
+			assertEquals(500, replay.getMeasureIntervalInMillis());
+			assertEquals(ticks, replay.getNumberOfTicks());
+			assertArrayEquals(new String[] { "Hash", "Sleep" }, replay.getRecordedParameterNames());
+			for (int i = 0; i < ticks; i++) {
+				assertFalse(replay.isFinished());
+				replay.measure();
+				assertEquals(i * 500L, replay.getRecordedTime());
+				assertArrayEquals(new double[] { i, 2 * i }, replay.getMeasurements(), 0);
+				assertFalse(replay.getRawSetpoints().has(0));
+				assertEquals(i % 2 == 0, replay.getRawSetpoints().has(1));
+				assertEquals(i, replay.getRecordedParameter(hash.getID()), 0);
+				assertEquals(7, replay.getRecordedParameter(sleep.getID()), 0);
+			}
+			assertTrue(replay.isFinished());
+			assertTrue(Double.isNaN(replay.getRecordedParameter(-1)));
+			replay.setLoop(true);
+			replay.measure();
+			assertEquals(0, replay.getRecordedTime());
+		} finally {
+			replay.close();
+		}
+	}
+
+	/**
+	 * A simulated run is recorded and played back through a controller, the
+	 * replay sees the same measurements and encodes the setpoints the same way
+	 */
+	@Test
+	public void testReplaySimulatedRun() throws Exception {
+		ParameterInterface<?>[] parameters = { new ParameterInteger(100, 10000, 1, "Hash"),
+				new ParameterInteger(10, 1000, 1, "Sleep") };
+		MeasureSimulation plant = new MeasureSimulation(new double[][] { { 0.5, 0.2 }, { 0.1, 0.3 } }, parameters,
+				1, TimeUnit.SECONDS, 20d, 40d);
+		Controller controller = new Controller(new ControllerPID(1, 0, 0, 5), plant, parameters, 1);
+		controller.setClock(new VirtualControlClock());
+		RunRecorder recorder = new RunRecorder(_file);
+		controller.setRunRecorder(recorder);
+		controller.simulate(60, TimeUnit.SECONDS);
+		recorder.close();
+		assertEquals(60, recorder.getRows());
+
+		MeasureReplay replay = new MeasureReplay(_file);
+		try {
+			Controller replayed = new Controller(new ControllerNULL(), replay, parameters, 1);
+			replayed.setClock(new VirtualControlClock());
+			replayed.simulate(60, TimeUnit.SECONDS);
+			assertTrue(replay.isFinished());
+			assertArrayEquals(plant.getMeasurements(), replay.getMeasurements(), 0);
+			Setpoints expected = plant.getSetpoints(1, 0);
+			Setpoints actual = replay.getSetpoints(1, 0);
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i), actual.get(i), 1e-12);
+			}
+		} finally {
+			replay.close();
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testReplayRejectsAnEmptyRecording() throws Exception {
+		new RunRecorder(_file).close();
+		new MeasureReplay(_file);
+	}
+}
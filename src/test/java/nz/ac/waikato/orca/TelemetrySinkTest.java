@@ -0,0 +1,108 @@
+package nz.ac.waikato.orca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TelemetrySinkTest {
+
+	private static final Setpoints SETPOINTS = new Setpoints(new Double[] { 40.0, null });
+
+	private static ParameterInterface<?>[] parameters() {
+		return new ParameterInterface<?>[] { new ParameterInteger(100, 10000, 1, "Hash") };
+	}
+
+	@Test
+	public void testWritesCSV() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TelemetrySink sink = new TelemetrySink(out, TelemetrySink.Format.CSV);
+		ParameterInterface<?>[] parameters = parameters();
+		assertTrue(sink.record(1000, new double[] { 1.5, 2.5 }, SETPOINTS, parameters));
+		assertTrue(sink.record(2000, new double[] { 3.5, 4.5 }, SETPOINTS, parameters));
+		sink.close();
+		String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+		assertEquals(3, lines.length);
+		assertEquals("time,measurement 0,measurement 1,set 0,set 1,Hash", lines[0]);
+		// A missing setpoint is left empty
+		assertEquals("1000,1.5,2.5,40.0,,100.0", lines[1]);
+		assertEquals("2000,3.5,4.5,40.0,,100.0", lines[2]);
+		assertNull(sink.getLastError());
+	}
+
+	@Test
+	public void testWritesBinary() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TelemetrySink sink = new TelemetrySink(out, TelemetrySink.Format.BINARY);
+		sink.record(1000, new double[] { 1.5, 2.5 }, SETPOINTS, parameters());
+		sink.close();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(TelemetrySink.BINARYMAGIC, in.readInt());
+		assertEquals(TelemetrySink.BINARYVERSION, in.readInt());
+		assertEquals(2, in.readInt());
+		assertEquals(2, in.readInt());
+		assertEquals(1, in.readInt());
+		assertEquals("Hash", in.readUTF());
+		assertEquals(1000, in.readDouble(), 0);
+		assertEquals(1.5, in.readDouble(), 0);
+		assertEquals(2.5, in.readDouble(), 0);
+		assertEquals(40, in.readDouble(), 0);
+		assertTrue(Double.isNaN(in.readDouble()));
+		assertEquals(100, in.readDouble(), 0);
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testDropsTicksWhenFull() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// The writer does not wake up until the sink is closed
+		TelemetrySink sink = new TelemetrySink(out, TelemetrySink.Format.CSV, 2, 1, TimeUnit.HOURS);
+		ParameterInterface<?>[] parameters = parameters();
+		int recorded = 0;
+		for (int i = 0; i < 5; i++) {
+			if (sink.record(i, new double[] { i, i }, SETPOINTS, parameters))
+				recorded++;
+		}
+		sink.close();
+		assertEquals(2, recorded);
+		assertEquals(3, sink.getDropped());
+		String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+		assertEquals(3, lines.length);
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsAnInvalidCapacity() throws Exception {
+		new TelemetrySink(new ByteArrayOutputStream(), TelemetrySink.Format.CSV, 0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test(timeout = 20000)
+	public void testPrintingWritesToStandardOutput() throws Exception {
+		PrintStream standardOutput = System.out;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ControllerHost host = new ControllerHost(1);
+		Controller controller = new Controller(null, new MeasureNull(5, TimeUnit.MILLISECONDS), null, 1);
+		System.setOut(new PrintStream(out, true));
+		try {
+			host.start(controller, true);
+			while (controller.getTotalTicks() < 3) {
+				Thread.sleep(5);
+			}
+			controller.stop();
+		} finally {
+			System.setOut(standardOutput);
+			host.shutdown();
+		}
+		String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+		assertEquals("time", lines[0]);
+		assertTrue(lines.length > 3);
+	}
+
+}
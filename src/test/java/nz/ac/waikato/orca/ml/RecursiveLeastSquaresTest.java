@@ -0,0 +1,99 @@
+package nz.ac.waikato.orca.ml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import nz.ac.waikato.orca.MeasureSimulation;
+import nz.ac.waikato.orca.ModelLQR;
+import nz.ac.waikato.orca.ParameterInteger;
+import nz.ac.waikato.orca.ParameterInterface;
+
+public class RecursiveLeastSquaresTest {
+
+  @Test
+  public void TestFitsALinearModel() throws Exception {
+    RecursiveLeastSquares Fit = new RecursiveLeastSquares(2, 1);
+    Random Rand = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      double[] Inputs = { Rand.nextDouble() * 10, Rand.nextDouble() * 10 };
+      Fit.Update(Inputs, 2 * Inputs[0] - 3 * Inputs[1] + 5);
+    }
+    assertEquals(2, Fit.GetCoefficient(0), 1e-3);
+    assertEquals(-3, Fit.GetCoefficient(1), 1e-3);
+    assertEquals(5, Fit.GetIntercept(), 1e-2);
+    assertEquals(100, Fit.GetTotalSamples());
+  }
+
+  @Test
+  public void TestForgettingTracksAChange() throws Exception {
+    RecursiveLeastSquares Forgetting = new RecursiveLeastSquares(1, 0.9);
+    RecursiveLeastSquares Remembering = new RecursiveLeastSquares(1, 1);
+    Random Rand = new Random(1);
+    for (int i = 0; i < 400; i++) {
+      double[] Inputs = { Rand.nextDouble() };
+      double Target = (i < 200) ? Inputs[0] : 4 * Inputs[0];
+      Forgetting.Update(Inputs, Target);
+      Remembering.Update(Inputs, Target);
+    }
+    assertEquals(4, Forgetting.GetCoefficient(0), 1e-2);
+    assertTrue(Math.abs(Remembering.GetCoefficient(0) - 4) > 0.5);
+  }
+
+  @Test
+  public void TestResetForgetsTheSamples() throws Exception {
+    RecursiveLeastSquares Fit = new RecursiveLeastSquares(1, 1);
+    Fit.Update(new double[] { 1 }, 2);
+    Fit.Reset();
+    assertEquals(0, Fit.GetCoefficient(0), 0);
+    assertEquals(0, Fit.GetIntercept(), 0);
+    assertEquals(0, Fit.GetTotalSamples());
+  }
+
+  /**
+   * Identifies the ModelLQR model of a simulated plant from the log of the
+   * measurements, the same way Controller does online
+   */
+  @Test
+  public void TestIdentifiesTheSimulatedModel() throws Exception {
+    double[][] B = { { 0.5, 0.2 }, { 0.1, 0.3 } };
+    ParameterInteger Hash = new ParameterInteger(100, 10000, 1, "Hash");
+    ParameterInteger Sleep = new ParameterInteger(100, 10000, 1, "Sleep");
+    ParameterInterface<?>[] Parameters = { Hash, Sleep };
+    MeasureSimulation Plant = new MeasureSimulation(B, Parameters, 1, TimeUnit.SECONDS, null, null);
+    RecursiveLeastSquares[] Fits = { new RecursiveLeastSquares(2, 1), new RecursiveLeastSquares(2, 1) };
+    Random Rand = new Random(1);
+    double[] Inputs = new double[2];
+    for (int i = 0; i < 200; i++) {
+      // The plant measures the output of the parameters it had on the last tick
+      Plant.measure();
+      if (i > 0) {
+        double[] Measurements = Plant.getMeasurements();
+        for (int m = 0; m < Fits.length; m++) {
+          Fits[m].Update(Inputs, Math.log(Measurements[m]));
+        }
+      }
+      for (int j = 0; j < Parameters.length; j++) {
+        Inputs[j] = ModelLQR.encodeParameter(Parameters[j].getDouble());
+      }
+      Hash.set((double) (100 + Rand.nextInt(9900)));
+      Sleep.set((double) (100 + Rand.nextInt(9900)));
+    }
+    double[] Intercepts = new ModelLQR().GetIntercepts();
+    for (int m = 0; m < Fits.length; m++) {
+      for (int j = 0; j < Parameters.length; j++) {
+        assertEquals(B[m][j], Fits[m].GetCoefficient(j), 1e-3);
+      }
+      assertEquals(Intercepts[m], Fits[m].GetIntercept(), 1e-2);
+    }
+  }
+
+  @Test(expected = Exception.class)
+  public void TestRejectsAnInvalidForgettingFactor() throws Exception {
+    new RecursiveLeastSquares(1, 1.5);
+  }
+}
@@ -0,0 +1,71 @@
+package nz.ac.waikato.orca.ml;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SampleIndexTest {
+
+  @Test
+  public void TestAddsToTheSameEntry() {
+    SampleIndex Index = new SampleIndex(2, 2);
+    int Entry = Index.Add(new int[] { 1, 2 }, new double[] { 10, 20 });
+    assertEquals(Entry, Index.Add(new int[] { 1, 2 }, new double[] { 30, 40 }));
+    assertEquals(1, Index.Size());
+    assertEquals(2, Index.GetCount(Entry));
+    assertEquals(20, Index.GetMean(Entry, 0), 0);
+    assertEquals(30, Index.GetMean(Entry, 1), 0);
+    assertEquals(Entry, Index.Find(new int[] { 1, 2 }));
+    assertEquals(-1, Index.Find(new int[] { 2, 1 }));
+  }
+
+  @Test
+  public void TestKeepsTheEntriesInOrder() {
+    SampleIndex Index = new SampleIndex(1, 1);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, Index.Add(new int[] { 100 - i }, new double[] { i }));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(100 - i, Index.GetKey(i, 0));
+    }
+  }
+
+  /**
+   * Keys that only differ in the high bits or by one in a place probe past
+   * each other, enough are added to grow and rehash the table several times
+   */
+  @Test
+  public void TestFindsEveryKeyAfterRehashing() {
+    SampleIndex Index = new SampleIndex(2, 1);
+    int Keys = 10000;
+    for (int i = 0; i < Keys; i++) {
+      Index.Add(new int[] { i << 16, i }, new double[] { i });
+    }
+    for (int i = 0; i < Keys; i++) {
+      Index.Add(new int[] { i << 16, i }, new double[] { i + 2 });
+    }
+    assertEquals(Keys, Index.Size());
+    for (int i = 0; i < Keys; i++) {
+      int Entry = Index.Find(new int[] { i << 16, i });
+      assertEquals(i, Entry);
+      assertEquals(2, Index.GetCount(Entry));
+      assertEquals(i + 1, Index.GetMean(Entry, 0), 0);
+    }
+    assertEquals(-1, Index.Find(new int[] { Keys << 16, Keys }));
+  }
+
+  @Test
+  public void TestClearRemovesEveryEntry() {
+    SampleIndex Index = new SampleIndex(1, 1);
+    for (int i = 0; i < 100; i++) {
+      Index.Add(new int[] { i }, new double[] { i });
+    }
+    Index.Clear();
+    assertEquals(0, Index.Size());
+    assertEquals(-1, Index.Find(new int[] { 5 }));
+    int Entry = Index.Add(new int[] { 5 }, new double[] { 3 });
+    assertEquals(0, Entry);
+    assertEquals(1, Index.GetCount(Entry));
+    assertEquals(3, Index.GetMean(Entry, 0), 0);
+  }
+}